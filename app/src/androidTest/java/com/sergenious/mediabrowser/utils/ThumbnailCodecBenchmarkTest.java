@@ -0,0 +1,94 @@
+package com.sergenious.mediabrowser.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.sergenious.mediabrowser.Constants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/** Measures the encoding time, the decoding time and the bytes per thumbnail of each codec, on the device,
+ * for a synthetic photo-like thumbnail of the full thumbnail size. The results are logged, only the sizes
+ * are asserted, as the times depend on the device. */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailCodecBenchmarkTest {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 20;
+
+    private static class Result {
+        long encodeNanos;
+        long decodeNanos;
+        int bytes;
+    }
+
+    @Test
+    public void benchmarkCodecs() {
+        Bitmap thumbnail = createPhotoLikeBitmap(Constants.THUMBNAIL_SIZE, Constants.THUMBNAIL_SIZE * 3 / 4);
+        Map<ThumbnailCodec, Result> results = new EnumMap<>(ThumbnailCodec.class);
+        for (ThumbnailCodec codec : ThumbnailCodec.values()) {
+            results.put(codec, measure(codec, thumbnail));
+        }
+
+        for (Map.Entry<ThumbnailCodec, Result> resultEntry : results.entrySet()) {
+            Result result = resultEntry.getValue();
+            Log.i(Constants.appNameInternal, String.format("%s: encode %.2f ms, decode %.2f ms, %d bytes",
+                resultEntry.getKey(), result.encodeNanos / 1e6 / MEASURED_ROUNDS,
+                result.decodeNanos / 1e6 / MEASURED_ROUNDS, result.bytes));
+        }
+        assertTrue(results.get(ThumbnailCodec.WEBP).bytes < results.get(ThumbnailCodec.PNG).bytes);
+        assertTrue(results.get(ThumbnailCodec.JPEG).bytes < results.get(ThumbnailCodec.PNG).bytes);
+    }
+
+    private static Result measure(ThumbnailCodec codec, Bitmap thumbnail) {
+        Result result = new Result();
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            byte[] data = codec.encode(thumbnail, Constants.THUMBNAIL_QUALITY);
+            long encodedTime = System.nanoTime();
+            Bitmap decoded = codec.decode(data);
+            long decodedTime = System.nanoTime();
+
+            assertNotNull(decoded);
+            assertEquals(thumbnail.getWidth(), decoded.getWidth());
+            assertEquals(thumbnail.getHeight(), decoded.getHeight());
+            decoded.recycle();
+            if (round >= WARMUP_ROUNDS) {
+                result.encodeNanos += encodedTime - startTime;
+                result.decodeNanos += decodedTime - encodedTime;
+                result.bytes = data.length;
+            }
+        }
+        return result;
+    }
+
+    /** The smooth gradients with the fine noise, so neither codec gets the flat areas of a synthetic image. */
+    private static Bitmap createPhotoLikeBitmap(int width, int height) {
+        Random random = new Random(1);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double shade = 0.5 + 0.5 * Math.sin(x / 37.0) * Math.cos(y / 23.0);
+                int noise = random.nextInt(16) - 8;
+                pixels[y * width + x] = Color.rgb(clamp((int) (255 * shade) + noise),
+                    clamp(x * 255 / width + noise), clamp(y * 255 / height + noise));
+            }
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
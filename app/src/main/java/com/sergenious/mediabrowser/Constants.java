@@ -1,15 +1,23 @@
 package com.sergenious.mediabrowser;
 
+import com.sergenious.mediabrowser.utils.ThumbnailCodec;
+
 public class Constants {
     public static final String appNameInternal = "mediaBrowser";
     public static final int NUM_IMAGE_LOADING_THREADS = 4;
     public static final int THUMBNAIL_LOADING_DELAY = 250; // ms
+    public static final int THUMBNAIL_PREFETCH_ROWS = 2; // around the visible rows
     public static final int THUMBNAIL_SIZE = 512;
+    // of the newly saved thumbnails, WEBP keeps the transparency, unlike JPEG, compared by ThumbnailCodecBenchmarkTest
+    public static final ThumbnailCodec THUMBNAIL_CODEC = ThumbnailCodec.WEBP;
+    public static final int THUMBNAIL_QUALITY = 80; // for the lossy thumbnail codecs
     public static final float MAX_IMAGE_SCALE = 10.0f;
     public static final int MAX_IMAGE_SIZE = 4096;
     public static final int FULL_IMAGE_LOAD_DELAY = 250;
     public static final long IMAGE_DOUBLE_CLICK_INTERVAL = 250;
     public static final int PREVIEW_IMAGE_SIZE = 1024;
+    public static final int MEDIA_PREFETCH_WINDOW = 3; // the decoded previews before and after the shown image
+    public static final long MAX_IMAGE_TILES_MEMORY = 48 * 1024 * 1024; // bytes, of the zoomed image details
     public static final int ACTION_BUTTON_SIZE_MM = 10;
     public static final int TRANSIENT_TIMER_INTERVAL = 10; // ms
     public static final int PANORAMIC_TIMER_INTERVAL = 20; // ms
@@ -5,7 +5,10 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -13,6 +16,7 @@ import android.os.Looper;
 import android.util.Log;
 import android.util.Pair;
 import android.util.Size;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -22,18 +26,31 @@ import android.view.animation.LinearInterpolator;
 import android.view.animation.RotateAnimation;
 import android.widget.GridView;
 import android.widget.ImageView;
+import android.widget.ListAdapter;
 import android.widget.SearchView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.sergenious.mediabrowser.filebrowser.FileMultiChoiceListener;
+import com.sergenious.mediabrowser.filebrowser.SimilarImageGrouper;
+import com.sergenious.mediabrowser.filebrowser.ThumbnailScheduler;
+import com.sergenious.mediabrowser.filesizes.DuplicateFinder;
+import com.sergenious.mediabrowser.filesizes.FileSizeScanner;
+import com.sergenious.mediabrowser.filesizes.FileSizeTree;
 import com.sergenious.mediabrowser.ui.DialogUtils;
 import com.sergenious.mediabrowser.ui.DirectoryChooserView;
 import com.sergenious.mediabrowser.ui.adapter.GridAdapter;
 import com.sergenious.mediabrowser.ui.gesture.SimpleScaleGestureDetector;
+import com.sergenious.mediabrowser.utils.BitmapPool;
+import com.sergenious.mediabrowser.utils.DirectorySizeDatabase;
+import com.sergenious.mediabrowser.utils.FileIndexer;
 import com.sergenious.mediabrowser.utils.FileUtils;
 import com.sergenious.mediabrowser.utils.FileUtils.FileInfo;
+import com.sergenious.mediabrowser.utils.MediaMetadata;
+import com.sergenious.mediabrowser.utils.MediaSearchQuery;
 import com.sergenious.mediabrowser.utils.MediaUtils;
+import com.sergenious.mediabrowser.utils.MetadataDatabase;
+import com.sergenious.mediabrowser.utils.ThumbnailMemoryCache;
 import com.sergenious.mediabrowser.utils.ThumbnailsDatabase;
 import com.sergenious.mediabrowser.utils.UiUtils;
 
@@ -43,16 +60,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -63,6 +80,7 @@ public class FileBrowserActivity extends Activity {
 	private static final String PREF_FILE_SORT_MODE = "fileSortMode";
 	private static final String PREF_SHOW_THUMBNAIL_NAMES = "showThumbnailNames";
 	private static final String PREF_SHORTCUTS = "shortcuts";
+	private static final int SIMILAR_IMAGES_BATCH_SIZE = 2000;
 
 	private File currentDirectory;
 	private File currentRootDir;
@@ -74,9 +92,14 @@ public class FileBrowserActivity extends Activity {
 	private SimpleScaleGestureDetector scaleGestureDetector;
 	private LayoutInflater inflater;
 	private ThumbnailsDatabase thumbnailsDatabase;
-	private ScheduledExecutorService thumbnailLoadingExecutor;
-	private final Map<View, ScheduledFuture<?>> thumbnailLoadingTasks = new ConcurrentHashMap<>();
+	private MetadataDatabase metadataDatabase;
+	private ThumbnailMemoryCache thumbnailMemoryCache;
+	private ThumbnailScheduler thumbnailScheduler;
+	private boolean isThumbnailsUpdatePosted;
+	private final ExecutorService fileListingExecutor = Executors.newSingleThreadExecutor();
+	private final AtomicInteger fileListingGeneration = new AtomicInteger(); // a new listing cancels the previous one
 	private boolean showThumbnailNames;
+	private volatile int thumbnailColumnWidth = Constants.THUMBNAIL_SIZE; // read by the thumbnail loading threads
 
 	@SuppressLint("ClickableViewAccessibility")
 	@Override
@@ -86,7 +109,20 @@ public class FileBrowserActivity extends Activity {
 		setTitle(R.string.files);
 
 		thumbnailsDatabase = ThumbnailsDatabase.getInstance(this.getApplicationContext());
-		thumbnailLoadingExecutor = new ScheduledThreadPoolExecutor(Constants.NUM_IMAGE_LOADING_THREADS);
+		metadataDatabase = MetadataDatabase.getInstance(this.getApplicationContext());
+		thumbnailMemoryCache = ThumbnailMemoryCache.getInstance();
+		thumbnailScheduler = new ThumbnailScheduler(Constants.NUM_IMAGE_LOADING_THREADS,
+			new ThumbnailScheduler.ThumbnailSource() {
+				@Override
+				public Map<File, Bitmap> loadCachedThumbnails(Collection<File> files) {
+					return FileBrowserActivity.this.loadCachedThumbnails(files);
+				}
+
+				@Override
+				public Bitmap createThumbnail(File file) {
+					return FileBrowserActivity.this.createThumbnail(file);
+				}
+			}, this::onThumbnailLoaded);
 
 		getActionBar().setDisplayHomeAsUpEnabled(false);
 		getActionBar().setBackgroundDrawable(getResources().getDrawable(R.drawable.gradient_appbar, getTheme()));
@@ -114,7 +150,7 @@ public class FileBrowserActivity extends Activity {
 		fileGridView.setEmptyView(findViewById(R.id.fileBrowserEmpty));
 		fileGridView.setChoiceMode(GridView.CHOICE_MODE_MULTIPLE_MODAL);
 		fileGridView.setOnScrollChangeListener((v, scrollX, scrollY, oldScrollX, oldScrollY) ->
-			checkFileItemsVisibility());
+			scheduleThumbnailsUpdate());
 		fileGridView.setOnItemClickListener((adapter, v, position, id) ->
 			onGridItemClick((FileInfo) adapter.getItemAtPosition(position)));
 		fileGridView.setMultiChoiceModeListener(new FileMultiChoiceListener(fileGridView,
@@ -125,6 +161,7 @@ public class FileBrowserActivity extends Activity {
 			GridAdapter<FileInfo> adapter = (GridAdapter<FileInfo>) fileGridView.getAdapter();
 			adapter.invalidate();
 			fileGridView.setColumnWidth(columnWidth);
+			thumbnailColumnWidth = columnWidth;
 			UiUtils.setSharedPreference(this, PREF_COLUMN_WIDTH, columnWidth);
 		});
 		fileGridView.setOnTouchListener(scaleGestureDetector);
@@ -140,18 +177,26 @@ public class FileBrowserActivity extends Activity {
 
 		if (!hasNoPermission) {
 			refreshFileList(currentRootDir, currentDirectory);
+			FileIndexer.getInstance(this).start(rootDirectories.keySet());
 		}
 	}
 
 	@Override
 	public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
 		refreshFileList(currentRootDir, currentDirectory);
+		// the roots are indexed only once, so not before they can be read
+		if ((grantResults.length > 0)
+			&& Arrays.stream(grantResults).allMatch(result -> result == PackageManager.PERMISSION_GRANTED)) {
+
+			FileIndexer.getInstance(this).start(rootDirectories.keySet());
+		}
 	}
 
 	@Override
 	protected void onResume() {
 		super.onResume();
 		int fileGridColumnWidth = UiUtils.getSharedPreference(this, PREF_COLUMN_WIDTH, 300);
+		thumbnailColumnWidth = fileGridColumnWidth;
 		// set the scale factor, if changed in another activity meanwhile
 		if (fileGridColumnWidth != scaleGestureDetector.getScaleFactor()) {
 			scaleGestureDetector.setScaleFactor(fileGridColumnWidth);
@@ -161,22 +206,21 @@ public class FileBrowserActivity extends Activity {
 				((FilesGridAdapter) fileGridView.getAdapter()).invalidate();
 			}
 		}
+		scheduleThumbnailsUpdate(); // the loading was canceled on pause
 	}
 
 	@Override
 	protected void onPause() {
 		super.onPause();
-		try {
-			// cancel all pending thumbnail loading tasks
-			Iterator<Map.Entry<View, ScheduledFuture<?>>> iterator = thumbnailLoadingTasks.entrySet().iterator();
-			while (iterator.hasNext()) {
-				ScheduledFuture<?> thumbnailLoadingFuture = iterator.next().getValue();
-				thumbnailLoadingFuture.cancel(false);
-				iterator.remove();
-			}
-		}
-		catch (Exception e) {
-			Log.e(Constants.appNameInternal, "Error canceling thumbnail loading tasks", e);
+		thumbnailScheduler.cancelAll();
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			thumbnailMemoryCache.clear();
+			BitmapPool.getInstance().clear();
 		}
 	}
 
@@ -184,10 +228,9 @@ public class FileBrowserActivity extends Activity {
 	protected void onDestroy() {
 		super.onDestroy();
 
-		if (thumbnailLoadingExecutor != null) {
-			thumbnailLoadingExecutor.shutdownNow();
-			thumbnailLoadingExecutor = null;
-		}
+		thumbnailScheduler.shutdown();
+		fileListingGeneration.incrementAndGet();
+		fileListingExecutor.shutdown();
 	}
 
 	@Override
@@ -198,6 +241,8 @@ public class FileBrowserActivity extends Activity {
 		menu.findItem(R.id.btnSlideshow).setVisible(currentDirectory != null);
 		menu.findItem(R.id.btnSort).setVisible(currentDirectory != null);
 		menu.findItem(R.id.btnShowLabels).setVisible(currentDirectory != null);
+		menu.findItem(R.id.btnFindDuplicates).setVisible(currentDirectory != null);
+		menu.findItem(R.id.btnGroupSimilar).setVisible(currentDirectory != null);
 
 		SearchView searchView = (SearchView) menu.findItem(R.id.btnSearch).getActionView();
 		searchView.setOnCloseListener(() -> {
@@ -240,6 +285,12 @@ public class FileBrowserActivity extends Activity {
 		if (id == R.id.btnSort) {
 			openFileSortModeSettings();
 		}
+		if (id == R.id.btnFindDuplicates) {
+			findDuplicates();
+		}
+		if (id == R.id.btnGroupSimilar) {
+			groupSimilarImages();
+		}
 		if (id == R.id.btnAddShortcut) {
 			DirectoryChooserView.createDialog(this, getString(R.string.add_shortcut_directory),
 				null, this::addShortcut);
@@ -335,17 +386,113 @@ public class FileBrowserActivity extends Activity {
 		}
 	}
 
+	/** The results are streamed into the grid (kept sorted), as the pages are read from the file index. */
 	private void searchForFiles(String query) {
-		DialogUtils.showProgressDialog(this, getString(R.string.searching_for) + " \"" + query + "\"...", 1.0f,
+		int generation = fileListingGeneration.incrementAndGet();
+		FilesGridAdapter adapter = new FilesGridAdapter(Collections.emptyList());
+		fileGridView.setAdapter(adapter);
+		setTitle(getString(R.string.searching_for) + " \"" + query + "\"");
+
+		MediaSearchQuery searchQuery = MediaSearchQuery.parse(query);
+		File searchDir = currentDirectory;
+		Comparator<FileInfo> comparator = FileUtils.FileSortMode.PATH.getComparator();
+		fileListingExecutor.execute(() -> {
+			FileIndexer.getInstance(this).searchFiles(searchQuery, searchDir,
+				page -> runOnUiThread(() -> {
+					if (!isDestroyed() && (generation == fileListingGeneration.get())) {
+						addItemsKeepingChecks(adapter, page, comparator);
+						scheduleThumbnailsUpdate();
+					}
+				}),
+				() -> generation != fileListingGeneration.get());
+
+			runOnUiThread(() -> {
+				if (!isDestroyed() && (generation == fileListingGeneration.get())) {
+					onFileListingFinished();
+				}
+			});
+		});
+	}
+
+	/** The scan (reusing the cached directory listings of the file sizes view) is the first half of the progress. */
+	private void findDuplicates() {
+		File searchDir = currentDirectory;
+		DialogUtils.showProgressDialog(this, getString(R.string.find_duplicates) + "...", 2.0f,
+			(progressUpdater, canceled) -> () -> {
+				FileSizeTree tree = new FileSizeScanner(DirectorySizeDatabase.getInstance(getApplicationContext()),
+					progressUpdater, canceled).scan(searchDir);
+				if (tree == null) {
+					return; // canceled
+				}
+				List<List<File>> duplicates = new DuplicateFinder(
+					(text, progress) -> progressUpdater.accept(text, 1 + progress), canceled).findDuplicates(tree);
+				if (duplicates != null) {
+					runOnUiThread(() -> showFileGroups(searchDir, getString(R.string.duplicates), duplicates));
+				}
+			});
+	}
+
+	/** Only the images with the cached thumbnails are grouped, the originals are not read. */
+	private void groupSimilarImages() {
+		File searchDir = currentDirectory;
+		DialogUtils.showProgressDialog(this, getString(R.string.group_similar) + "...", 1.0f,
 			(progressUpdater, canceled) -> () -> {
-				List<FileInfo> fileInfoList = FileUtils.searchFiles(query, currentDirectory,
-					MediaUtils.getAllMediaExtensions(), FileUtils.FileSortMode.PATH, progressUpdater, canceled);
+				List<File> files = FileIndexer.getInstance(this).searchFiles(null, searchDir,
+						FileUtils.FileSortMode.PATH, 0, 0.5, progressUpdater, canceled)
+					.stream()
+					.filter(f -> !f.isDirectory)
+					.map(f -> f.file)
+					.collect(Collectors.toList());
+
+				// the hashes are loaded in parts, for the progress
+				Map<String, Long> hashes = new HashMap<>();
+				for (int i = 0; (i < files.size()) && !canceled.get(); i += SIMILAR_IMAGES_BATCH_SIZE) {
+					List<File> batch = files.subList(i, Math.min(files.size(), i + SIMILAR_IMAGES_BATCH_SIZE));
+					progressUpdater.accept(batch.get(0).getName(), 0.5 + 0.5 * i / files.size());
+					hashes.putAll(thumbnailsDatabase.loadPerceptualHashes(
+						batch.stream().map(File::getAbsolutePath).collect(Collectors.toList())));
+				}
+				if (canceled.get()) {
+					return;
+				}
 
-				if (!canceled.get()) {
-					runOnUiThread(() -> fileGridView.setAdapter(new FilesGridAdapter(fileInfoList)));
+				List<List<File>> groups = SimilarImageGrouper.groupSimilar(files, hashes,
+					SimilarImageGrouper.DEFAULT_MAX_DISTANCE);
+				// the largest file of each group (likely of the best quality) is listed first, so it is the kept one
+				for (List<File> group : groups) {
+					File largestFile = Collections.max(group, Comparator.comparingLong(File::length));
+					group.remove(largestFile);
+					group.add(0, largestFile);
 				}
+				runOnUiThread(() -> showFileGroups(searchDir, getString(R.string.similar_images), groups));
+			});
+	}
+
+	/** Lists the groups of the files one after another, the names relative to the searched directory and prefixed
+	 * by the group number, so the superfluous files can be selected. The first file of each group is kept,
+	 * it cannot be selected, so deleting the selection never removes all the files of a group. */
+	private void showFileGroups(File searchDir, String title, List<List<File>> groups) {
+		if (isDestroyed() || !searchDir.equals(currentDirectory)) {
+			return;
+		}
+		fileListingGeneration.incrementAndGet();
+
+		String searchPath = searchDir.getAbsolutePath() + "/";
+		List<FileInfo> groupedFiles = new ArrayList<>();
+		Set<File> keptFiles = new HashSet<>();
+		for (int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+			List<File> group = groups.get(groupIndex);
+			keptFiles.add(group.get(0));
+			for (File file : group) {
+				String path = file.getAbsolutePath();
+				groupedFiles.add(new FileInfo(file, false, "#" + (groupIndex + 1) + " "
+					+ (path.startsWith(searchPath) ? path.substring(searchPath.length()) : path), 0, 0, false));
 			}
-		);
+		}
+		fileGridView.setAdapter(new FilesGridAdapter(groupedFiles, keptFiles));
+		setTitle(title + " [" + groups.size() + "]");
+		onFileListingFinished();
+		scheduleThumbnailsUpdate();
 	}
 
 	private void openFileSortModeSettings() {
@@ -368,14 +515,11 @@ public class FileBrowserActivity extends Activity {
 	}
 
 	private void updateThumbnailNamesVisibility(boolean visible) {
-		for (int i = 0; i < fileGridView.getAdapter().getCount(); i++) {
-			FileInfo fileInfo = (FileInfo) fileGridView.getAdapter().getItem(i);
-			if ((fileInfo != null) && fileInfo.file.isFile()) {
-				View row = fileGridView.getAdapter().getView(i, null, null);
-				TextView fileNameView = row.findViewById(R.id.itemFileName);
-				ImageView imageView = row.findViewById(R.id.itemIcon);
-				fileNameView.setVisibility(visible || (imageView.getDrawable() == null) ? View.VISIBLE : View.INVISIBLE);
-			}
+		// only the shown rows exist, the others are updated when bound
+		for (int childIndex = 0; childIndex < fileGridView.getChildCount(); childIndex++) {
+			FileRowHolder rowHolder = (FileRowHolder) fileGridView.getChildAt(childIndex).getTag();
+			rowHolder.fileNameView.setVisibility(visible || (rowHolder.imgView.getDrawable() == null)
+				? View.VISIBLE : View.INVISIBLE);
 		}
 	}
 
@@ -387,6 +531,7 @@ public class FileBrowserActivity extends Activity {
 
 	private void refreshFileListInternal(File currRootDir, File currDir) {
 		getActionBar().setDisplayHomeAsUpEnabled(currDir != null);
+		int generation = fileListingGeneration.incrementAndGet();
 
 		if (currDir == null) { // list root folders
 			setTitle(getResources().getString(R.string.root_folders));
@@ -395,114 +540,270 @@ public class FileBrowserActivity extends Activity {
 				rootItems.add(new FileInfo(shortcut, false, shortcut.getName(), R.drawable.ic_shortcut, 0));
 			}
 			fileGridView.setAdapter(new FilesGridAdapter(rootItems));
+			onFileListingFinished();
 		}
-		else { // list directories and files
-			List<FileInfo> fileInfoList = FileUtils.getFileList(currDir,
-				MediaUtils.getAllMediaExtensions(), true, fileSortMode);
-			fileGridView.setAdapter(new FilesGridAdapter(fileInfoList));
+		else { // list directories and files, shown in batches (kept sorted), while the directory is read
+			FilesGridAdapter adapter = new FilesGridAdapter(Collections.emptyList());
+			fileGridView.setAdapter(adapter);
 
 			FileInfo currRootInfo = rootDirectories.get(currRootDir);
 			String title = currDir.equals(currRootDir) && (currRootInfo != null) ? currRootInfo.name : currDir.getName();
-			setTitle(title + " [" + fileInfoList.size() + "]");
+			setTitle(title + " [0]");
+
+			Comparator<FileInfo> comparator = fileSortMode.getComparator();
+			fileListingExecutor.execute(() -> {
+				FileUtils.listFiles(currDir, MediaUtils.getMediaFileFilter(), true,
+					batch -> runOnUiThread(() -> {
+						if (!isDestroyed() && (generation == fileListingGeneration.get())) {
+							addItemsKeepingChecks(adapter, batch, comparator);
+							setTitle(title + " [" + adapter.getCount() + "]");
+							scheduleThumbnailsUpdate();
+						}
+					}),
+					() -> generation != fileListingGeneration.get());
+
+				runOnUiThread(() -> {
+					if (!isDestroyed() && (generation == fileListingGeneration.get())) {
+						onFileListingFinished();
+					}
+				});
+			});
 		}
+	}
+
+	/** The grid keeps the checks by the positions, so the checked items are checked again at their new positions,
+	 * when the merged batch moves them, and the multi-choice actions still get the files the user selected. */
+	private void addItemsKeepingChecks(FilesGridAdapter adapter, Collection<FileInfo> batch, Comparator<FileInfo> comparator) {
+		Set<FileInfo> checkedItems = Collections.newSetFromMap(new IdentityHashMap<>());
+		SparseBooleanArray checkedPositions = fileGridView.getCheckedItemPositions();
+		for (int i = 0; (checkedPositions != null) && (i < checkedPositions.size()); i++) {
+			if (checkedPositions.valueAt(i)) {
+				checkedItems.add(adapter.getItem(checkedPositions.keyAt(i)));
+			}
+		}
+
+		adapter.addItems(batch, comparator);
+		if (checkedItems.isEmpty()) {
+			return;
+		}
+		fileGridView.clearChoices();
+		for (int position = 0; position < adapter.getCount(); position++) {
+			if (checkedItems.contains(adapter.getItem(position))) {
+				fileGridView.setItemChecked(position, true);
+			}
+		}
+	}
 
+	private void onFileListingFinished() {
 		((TextView) findViewById(R.id.fileBrowserEmptyLabel)).setText(R.string.no_media_files);
 		findViewById(R.id.fileBrowserEmptyIcon).setVisibility(View.GONE);
 	}
 
-	private void loadAndSetThumbnail(final ImageView imgView, final TextView fileNameView, String fileName) {
+	/** Called from the thumbnail loading threads, which validate the memory cache by the current file times. */
+	private Map<File, Bitmap> loadCachedThumbnails(Collection<File> files) {
+		Map<File, Bitmap> thumbnails = new HashMap<>();
+		Map<String, Long> notInMemoryFileTimes = new HashMap<>(); // by the path
+		for (File file : files) {
+			long fileTime = file.lastModified();
+			Bitmap thumbnail = thumbnailMemoryCache.get(file, fileTime);
+			if ((thumbnail != null) && !isThumbnailTooSmall(file, thumbnail)) {
+				thumbnails.put(file, thumbnail);
+			}
+			else {
+				notInMemoryFileTimes.put(file.getAbsolutePath(), fileTime);
+			}
+		}
+
+		if (!notInMemoryFileTimes.isEmpty()) {
+			for (Map.Entry<String, Bitmap> thumbnailEntry
+				: thumbnailsDatabase.loadThumbnails(notInMemoryFileTimes.keySet()).entrySet()) {
+
+				File file = new File(thumbnailEntry.getKey());
+				long fileTime = notInMemoryFileTimes.get(thumbnailEntry.getKey());
+				thumbnailMemoryCache.put(file, fileTime, thumbnailEntry.getValue());
+				thumbnails.put(file, thumbnailEntry.getValue());
+			}
+		}
+		return thumbnails;
+	}
+
+	/** Called from the thumbnail loading threads. */
+	private Bitmap createThumbnail(File file) {
 		try {
-			long fileSize = new File(fileName).length();
-			Bitmap thumbnail = thumbnailsDatabase.loadThumbnail(fileName, fileSize);
-			if (thumbnail == null) {
-				final Pair<Pair<Size, Integer>, Bitmap> imageData = MediaUtils.loadThumbnailImage(this, new File(fileName), true);
-
-				if ((imageData != null) && (imageData.second != null)) {
-					thumbnail = imageData.second;
-					thumbnailsDatabase.saveThumbnail(fileName, fileSize, thumbnail);
-				}
+			long fileSize = file.length();
+			long fileTime = file.lastModified();
+			MediaMetadata metadata = metadataDatabase.getMetadata(file);
+
+			// the small embedded EXIF thumbnail is enough, if it covers the grid cell, but it is not saved,
+			// as the saved thumbnail is shown in any column width, it is replaced when the grid is zoomed in
+			int minEmbeddedThumbnailSize = Math.min(thumbnailColumnWidth, Constants.THUMBNAIL_SIZE);
+			Pair<Pair<Size, Integer>, Bitmap> imageData = (metadata != null)
+				? MediaUtils.loadEmbeddedThumbnail(file, metadata, minEmbeddedThumbnailSize, true) : null;
+			if ((imageData != null) && (Math.min(imageData.second.getWidth(), imageData.second.getHeight())
+				< Constants.THUMBNAIL_SIZE)) {
+
+				thumbnailMemoryCache.putLowResolution(file, fileTime, imageData.second);
+				return imageData.second;
 			}
 
-			if (thumbnail != null) {
-				final Bitmap thumbnailFinal = thumbnail;
-				runOnUiThread(() -> {
-					if (!isDestroyed()) {
-						imgView.setImageBitmap(thumbnailFinal);
-						fileNameView.setVisibility(showThumbnailNames ? View.VISIBLE : View.INVISIBLE);
-					}
-				});
+			if (imageData == null) {
+				imageData = MediaUtils.loadThumbnailImage(this, file, metadata, true);
+			}
+			if ((imageData != null) && (imageData.second != null)) {
+				thumbnailsDatabase.saveThumbnail(file.getAbsolutePath(), fileSize, fileTime, imageData.second);
+				thumbnailMemoryCache.put(file, fileTime, imageData.second);
+				return imageData.second;
 			}
 		}
 		catch (Exception e) {
 			Log.e(Constants.appNameInternal, "Error loading thumbnail", e);
 		}
+		return null;
 	}
 
-	private void scheduleFileThumbnailLoad(View row) {
-		ImageView imgView = row.findViewById(R.id.itemIcon);
-		TextView fileNameView = row.findViewById(R.id.itemFileName);
-		File file = (File) row.getTag();
+	private void onThumbnailLoaded(File file, Bitmap thumbnail) {
+		runOnUiThread(() -> {
+			if (isDestroyed()) {
+				return;
+			}
+			// the thumbnails of the rows, which are not shown yet, are taken from the memory cache later
+			for (int childIndex = 0; childIndex < fileGridView.getChildCount(); childIndex++) {
+				FileRowHolder rowHolder = (FileRowHolder) fileGridView.getChildAt(childIndex).getTag();
+				if (file.equals(rowHolder.file)) { // the row might be reused for another file meanwhile
+					setThumbnail(rowHolder, thumbnail);
+				}
+			}
+		});
+	}
+
+	private void setThumbnail(FileRowHolder rowHolder, Bitmap thumbnail) {
+		rowHolder.imgView.setImageBitmap(thumbnail);
+		rowHolder.fileNameView.setVisibility(showThumbnailNames ? View.VISIBLE : View.INVISIBLE);
+	}
 
-		ScheduledFuture<?> thumbnailLoadingFuture = thumbnailLoadingExecutor.schedule(() -> {
-			loadAndSetThumbnail(imgView, fileNameView, file.getAbsolutePath());
-			thumbnailLoadingTasks.remove(row);
-		}, Constants.THUMBNAIL_LOADING_DELAY, TimeUnit.MILLISECONDS);
+	private void scheduleFileThumbnailLoad(FileRowHolder rowHolder) {
+		// already decoded thumbnails are set immediately, without the delay (and without a stat of the file)
+		Bitmap thumbnail = thumbnailMemoryCache.get(rowHolder.file, rowHolder.fileTime);
+		if (thumbnail != null) {
+			setThumbnail(rowHolder, thumbnail);
+		}
+		if ((thumbnail == null) || isThumbnailTooSmall(rowHolder.file, thumbnail)) {
+			scheduleThumbnailsUpdate();
+		}
+	}
 
-		thumbnailLoadingTasks.put(row, thumbnailLoadingFuture);
+	/** The low resolution thumbnail (not saved) does not cover the grid cell anymore, after zooming in. */
+	private boolean isThumbnailTooSmall(File file, Bitmap thumbnail) {
+		return (Math.min(thumbnail.getWidth(), thumbnail.getHeight()) < thumbnailColumnWidth)
+			&& thumbnailMemoryCache.isLowResolution(file);
 	}
 
+	private void scheduleThumbnailsUpdate() {
+		// the scroll events are throttled, so a fling only updates the wanted thumbnails a few times
+		if (!isThumbnailsUpdatePosted) {
+			isThumbnailsUpdatePosted = true;
+			handler.postDelayed(this::checkFileItemsVisibility, Constants.THUMBNAIL_LOADING_DELAY);
+		}
+	}
+
+	/** Requests the thumbnails of the visible files and the files within the prefetch margin,
+	 * with the priority by the distance from the center of the visible range. */
 	private void checkFileItemsVisibility() {
-		if (fileGridView.getAdapter() == null) {
+		isThumbnailsUpdatePosted = false;
+		ListAdapter adapter = fileGridView.getAdapter();
+		int firstPosition = fileGridView.getFirstVisiblePosition();
+		int lastPosition = fileGridView.getLastVisiblePosition();
+		if (isDestroyed() || (adapter == null) || (lastPosition < firstPosition)) {
 			return;
 		}
 
-		for (int i = 0; i < fileGridView.getAdapter().getCount(); i++) {
-			View row = fileGridView.getAdapter().getView(i, null, null);
+		int prefetchMargin = Math.max(1, fileGridView.getNumColumns()) * Constants.THUMBNAIL_PREFETCH_ROWS;
+		float centerPosition = (firstPosition + lastPosition) / 2.0f;
+		Map<File, Integer> filePriorities = new HashMap<>();
+
+		for (int i = Math.max(0, firstPosition - prefetchMargin);
+			i <= Math.min(adapter.getCount() - 1, lastPosition + prefetchMargin); i++) {
+
+			FileInfo fileInfo = (FileInfo) adapter.getItem(i);
+			if (fileInfo.iconResId != 0) {
+				continue; // directory or shortcut
+			}
+
+			View row = ((i >= firstPosition) && (i <= lastPosition)) ? fileGridView.getChildAt(i - firstPosition) : null;
 			if (row != null) {
-				File file = (File) row.getTag();
-				ImageView imgView = row.findViewById(R.id.itemIcon);
-				if ((i >= fileGridView.getFirstVisiblePosition()) && (i <= fileGridView.getLastVisiblePosition())) {
-					if ((file != null) && !file.isDirectory() && (imgView.getDrawable() == null)
-						&& !thumbnailLoadingTasks.containsKey(row)) {
-
-						// file item becomes visible, while not yet loaded or scheduled
-						scheduleFileThumbnailLoad(row);
-					}
-				}
-				else {
-					ScheduledFuture<?> thumbnailLoadingFuture = thumbnailLoadingTasks.remove(row);
-					if (thumbnailLoadingFuture != null) {
-						// file item becomes invisible, so cancel the scheduled task
-						thumbnailLoadingFuture.cancel(false);
-					}
+				Drawable drawable = ((FileRowHolder) row.getTag()).imgView.getDrawable();
+				if ((drawable instanceof BitmapDrawable)
+					&& !isThumbnailTooSmall(fileInfo.file, ((BitmapDrawable) drawable).getBitmap())) {
+
+					continue; // already shown
 				}
 			}
+			filePriorities.put(fileInfo.file, Math.round(Math.abs(i - centerPosition)));
+		}
+
+		thumbnailScheduler.update(filePriorities);
+	}
+
+	private static class FileRowHolder {
+		final ImageView imgView;
+		final TextView fileNameView;
+		final Drawable defaultBackground;
+		File file;
+		long fileTime; // 0, if unknown
+
+		FileRowHolder(View row) {
+			imgView = row.findViewById(R.id.itemIcon);
+			fileNameView = row.findViewById(R.id.itemFileName);
+			defaultBackground = imgView.getBackground();
 		}
 	}
 
 	private class FilesGridAdapter extends GridAdapter<FileInfo> {
+		private final Set<File> uncheckableFiles;
+
 		public FilesGridAdapter(Collection<FileInfo> fileInfoList) {
-			super(fileInfoList);
+			this(fileInfoList, Collections.emptySet());
+		}
+
+		public FilesGridAdapter(Collection<FileInfo> fileInfoList, Set<File> uncheckableFiles) {
+			super(fileInfoList, true);
+			this.uncheckableFiles = uncheckableFiles;
         }
 
+		@Override
+		public boolean isItemCheckable(int position) {
+			FileInfo fileInfo = getItem(position);
+			return (fileInfo == null) || !uncheckableFiles.contains(fileInfo.file);
+		}
+
 		@Override
         protected View createRow() {
 			return inflater.inflate(R.layout.file_browser_item, fileGridView, false);
         }
 
+		@Override
+		protected Object createRowHolder(View row) {
+			return new FileRowHolder(row);
+		}
+
 		@Override
         protected void prepareRow(int position, View row, FileInfo fileInfo) {
-			TextView fileNameView = row.findViewById(R.id.itemFileName);
-			ImageView imgView = row.findViewById(R.id.itemIcon);
-			fileNameView.setText((fileInfo.name != null) ? fileInfo.name : fileInfo.file.getName());
-			row.setTag(fileInfo.file);
+			// the row might be reused from another file, so everything is reset,
+			// and the thumbnail of the previous file is not requested anymore on the next visibility check
+			FileRowHolder rowHolder = (FileRowHolder) row.getTag();
+			rowHolder.file = fileInfo.file;
+			rowHolder.fileTime = fileInfo.fileTime;
+			rowHolder.fileNameView.setText((fileInfo.name != null) ? fileInfo.name : fileInfo.file.getName());
+			rowHolder.fileNameView.setVisibility(View.VISIBLE);
+			rowHolder.imgView.setImageDrawable(null);
 
 			try {
 				if (fileInfo.iconResId > 0) {
-					imgView.setBackgroundResource(fileInfo.iconResId);
+					rowHolder.imgView.setBackgroundResource(fileInfo.iconResId);
 				}
-				if (fileInfo.file.isFile()) {
-					scheduleFileThumbnailLoad(row);
+				else {
+					rowHolder.imgView.setBackground(rowHolder.defaultBackground);
+					scheduleFileThumbnailLoad(rowHolder);
 				}
 			}
 			catch (Exception e) {
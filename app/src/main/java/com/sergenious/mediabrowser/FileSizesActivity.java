@@ -1,35 +1,47 @@
 package com.sergenious.mediabrowser;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.os.Bundle;
+import android.text.Html;
 import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.ViewGroup;
 import android.view.Window;
 import android.widget.FrameLayout;
 
+import com.sergenious.mediabrowser.filesizes.FileSizeScanner;
+import com.sergenious.mediabrowser.filesizes.FileSizeStatistics;
+import com.sergenious.mediabrowser.filesizes.FileSizesLayout;
+import com.sergenious.mediabrowser.filesizes.FileSizeTree;
 import com.sergenious.mediabrowser.ui.CanvasView;
+import com.sergenious.mediabrowser.ui.DataGridLayout;
 import com.sergenious.mediabrowser.ui.DialogUtils;
 import com.sergenious.mediabrowser.ui.gesture.ScaleMoveGestureDetector;
+import com.sergenious.mediabrowser.utils.DirectorySizeDatabase;
 import com.sergenious.mediabrowser.utils.FileUtils;
 import com.sergenious.mediabrowser.utils.UiUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
 public class FileSizesActivity extends Activity implements ScaleMoveGestureDetector.OnScaleMoveGestureListener {
     public static final String ROOT_DIR_PARAM = "rootDir";
     private static final float MIN_SCALE_X = 200;
+    private static final int MAX_SUMMARY_EXTENSIONS = 20;
 
     private CanvasView fileView;
     private ScaleMoveGestureDetector gestureDetector;
@@ -37,23 +49,15 @@ public class FileSizesActivity extends Activity implements ScaleMoveGestureDetec
     private final TextPaint fileSizePaint = new TextPaint();
     private final Paint rectOutlinePaint = new Paint();
     private final Paint rectFillPaint = new Paint();
-    private FileTreeNode rootTreeNode = null;
+    private final Paint otherFillPaint = new Paint();
+    private FileSizesLayout fileSizesLayout = null;
+    private FileSizeStatistics fileSizeStatistics = null;
     private int maxTreeDepth;
     private float viewScaleX = MIN_SCALE_X * 2.0f;
     private float viewScaleY = 0;
     private float viewOffsetX = 0.0f;
     private float viewOffsetY = 0.0f;
 
-    private static class FileTreeNode {
-        public final File file;
-        public final List<FileTreeNode> childNodes = new ArrayList<>();
-        public long fileSize;
-
-        public FileTreeNode(File file) {
-            this.file = file;
-        }
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -78,6 +82,8 @@ public class FileSizesActivity extends Activity implements ScaleMoveGestureDetec
         rectOutlinePaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_MM, 0.25f, dm));
         rectFillPaint.setStyle(Paint.Style.FILL);
         rectFillPaint.setColor(0xFF606060);
+        otherFillPaint.setStyle(Paint.Style.FILL);
+        otherFillPaint.setColor(0xFF484848);
 
         boolean hasNoPermission = UiUtils.requestReadMediaPermissions(this);
 
@@ -91,6 +97,13 @@ public class FileSizesActivity extends Activity implements ScaleMoveGestureDetec
         refreshFileList();
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.file_sizes_menu, menu);
+        menu.findItem(R.id.btnSummary).setVisible(fileSizeStatistics != null);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -98,6 +111,10 @@ public class FileSizesActivity extends Activity implements ScaleMoveGestureDetec
             finish();
             return true;
         }
+        if ((id == R.id.btnSummary) && (fileSizeStatistics != null)) {
+            showSummary(fileSizeStatistics);
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -176,101 +193,98 @@ public class FileSizesActivity extends Activity implements ScaleMoveGestureDetec
     }
 
     private void refreshFileList(File rootDir, BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled) {
-        rootTreeNode = new FileTreeNode(rootDir);
-        AtomicInteger maxDepth = new AtomicInteger();
-
-        rootTreeNode.fileSize += appendDirectory(rootTreeNode, rootDir, rootDir,
-            1, maxDepth, progressUpdater, canceled, 0.0, 1.0);
+        FileSizeScanner scanner = new FileSizeScanner(DirectorySizeDatabase.getInstance(getApplicationContext()),
+            progressUpdater, canceled);
+        FileSizeTree tree = scanner.scan(rootDir);
+        if (tree == null) {
+            return; // canceled
+        }
 
-        maxTreeDepth = maxDepth.get();
+        FileSizesLayout layout = new FileSizesLayout(tree, fileNamePaint, fileSizePaint,
+            rectOutlinePaint, rectFillPaint, otherFillPaint);
+        FileSizeStatistics statistics = scanner.getStatistics();
+        runOnUiThread(() -> {
+            fileSizesLayout = layout;
+            maxTreeDepth = layout.getMaxDepth();
+            fileSizeStatistics = statistics;
+            invalidateOptionsMenu();
+        });
     }
 
-    private long appendDirectory(FileTreeNode parentNode, File rootDir, File parentDir,
-        int depth, AtomicInteger maxDepth,
-        BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled,
-        double progress, double progressFactor) {
-
-        if (canceled.get()) {
-            return 0;
+    private void showSummary(FileSizeStatistics statistics) {
+        List<List<Object>> rows = new ArrayList<>();
+        rows.add(Arrays.asList(getString(R.string.total), formatTotal(statistics.getTotal())));
+
+        addSummaryHeader(rows, R.string.size_by_type);
+        FileSizeStatistics.Total[] byType = statistics.getByType();
+        rows.add(Arrays.asList(getString(R.string.images), formatTotal(byType[0])));
+        rows.add(Arrays.asList(getString(R.string.videos), formatTotal(byType[1])));
+        rows.add(Arrays.asList(getString(R.string.other), formatTotal(byType[2])));
+
+        addSummaryHeader(rows, R.string.size_by_extension);
+        List<Map.Entry<String, FileSizeStatistics.Total>> extensions = new ArrayList<>(statistics.getByExtension().entrySet());
+        extensions.sort((e1, e2) -> Long.compare(e2.getValue().bytes, e1.getValue().bytes));
+        FileSizeStatistics.Total otherExtensions = new FileSizeStatistics.Total();
+        for (int i = 0; i < extensions.size(); i++) {
+            Map.Entry<String, FileSizeStatistics.Total> extension = extensions.get(i);
+            if (i < MAX_SUMMARY_EXTENSIONS) {
+                rows.add(Arrays.asList(extension.getKey().isEmpty() ? getString(R.string.no_extension) : extension.getKey(),
+                    formatTotal(extension.getValue())));
+            }
+            else {
+                otherExtensions.count += extension.getValue().count;
+                otherExtensions.bytes += extension.getValue().bytes;
+            }
         }
-        progressUpdater.accept(parentDir.getAbsolutePath().substring(rootDir.getAbsolutePath().length()), progress);
-        if (depth > maxDepth.get()) {
-            maxDepth.set(depth);
+        if (otherExtensions.count > 0) {
+            rows.add(Arrays.asList(getString(R.string.other), formatTotal(otherExtensions)));
         }
 
-        long totalFileSize = 0;
-        File[] fileList = parentDir.listFiles();
-        if (fileList != null) {
-            progressFactor /= fileList.length;
-            for (int fileIndex = 0; fileIndex < fileList.length; fileIndex++) {
-                File file = fileList[fileIndex];
-
-                FileTreeNode node = new FileTreeNode(file);
-                parentNode.childNodes.add(node);
-
-                if (file.isDirectory()) {
-                    long childSize = appendDirectory(node, rootDir, file, depth + 1, maxDepth,
-                        progressUpdater, canceled,
-                        progress + progressFactor * fileIndex, progressFactor);
-                    totalFileSize += childSize;
-                    node.fileSize += childSize;
-                }
-                else {
-                    long fileSize = file.length();
-                    totalFileSize += fileSize;
-                    node.fileSize = fileSize;
-                }
-            }
+        addSummaryHeader(rows, R.string.size_by_year);
+        for (Map.Entry<Integer, FileSizeStatistics.Total> year : statistics.getByYear().entrySet()) {
+            rows.add(Arrays.asList(year.getKey(), formatTotal(year.getValue())));
+        }
 
-            parentNode.childNodes.sort((n1, n2) -> {
-                long diff = n2.fileSize - n1.fileSize;
-                return (int) Math.signum(diff);
-            });
+        addSummaryHeader(rows, R.string.size_by_file_size);
+        FileSizeStatistics.Total[] bySize = statistics.getBySize();
+        for (int i = 0; i < bySize.length; i++) {
+            if (bySize[i].count > 0) {
+                rows.add(Arrays.asList((i == 0) ? "0" : "\u2265 " + FileUtils.fileSizeToString(1L << (i - 1), false),
+                    formatTotal(bySize[i])));
+            }
         }
 
-        return totalFileSize;
+        addSummaryHeader(rows, R.string.size_same_size);
+        rows.add(Arrays.asList(getString(R.string.same_size_files), formatTotal(statistics.getSameSize())));
+        rows.add(Arrays.asList(getString(R.string.same_size_extra_copies), formatTotal(statistics.getSameSizeExtraCopies())));
+
+        AlertDialog dialog = new AlertDialog.Builder(this, R.style.MediaBrowserTheme_AlertDialog)
+            .setTitle(R.string.summary)
+            .setView(new DataGridLayout(this, rows,
+                Collections.singletonList(150),
+                Arrays.asList(R.style.MediaBrowserTheme_MediaDetailsLabel,
+                    R.style.MediaBrowserTheme_MediaDetailsValue)))
+            .show();
+
+        dialog.getWindow().setLayout(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    private void addSummaryHeader(List<List<Object>> rows, int titleResId) {
+        rows.add(Arrays.asList(Html.fromHtml("<b>" + TextUtils.htmlEncode(getString(titleResId)) + "</b>",
+            Html.FROM_HTML_MODE_LEGACY), ""));
+    }
+
+    private static String formatTotal(FileSizeStatistics.Total total) {
+        return FileUtils.fileSizeToString(total.bytes, false) + " (" + total.count + ")";
     }
 
     private void onDraw(Canvas canvas) {
-        if (rootTreeNode == null) {
+        if (fileSizesLayout == null) {
             return;
         }
 
         limitScales();
         limitOffsets();
-        drawFile(canvas, viewScaleX, viewScaleY, viewOffsetX, viewOffsetY, rootTreeNode);
-    }
-
-    private void drawFile(Canvas canvas, float scaleX, float scaleY, float ofsX, float ofsY, FileTreeNode fileNode) {
-        if (scaleY > 4) {
-            canvas.drawRect(ofsX + 2, ofsY + 2, ofsX + scaleX - 4, ofsY + scaleY - 4, rectFillPaint);
-            canvas.drawRect(ofsX + 2, ofsY + 2, ofsX + scaleX - 4, ofsY + scaleY - 4, rectOutlinePaint);
-
-            if (scaleY > fileNamePaint.getTextSize() + 4) {
-                String fileName = fileNode.file.getName();
-                if (fileNode.file.isDirectory()) {
-                    fileName += " [" + fileNode.childNodes.size() + "]";
-                }
-                CharSequence fileNameText = TextUtils.ellipsize(fileName,
-                    fileNamePaint, scaleX - 4, TextUtils.TruncateAt.MIDDLE);
-                canvas.drawText(fileNameText.toString(), ofsX + 2, ofsY + fileNamePaint.getTextSize() + 0, fileNamePaint);
-            }
-            if (scaleY > fileNamePaint.getTextSize() + fileSizePaint.getTextSize() + 8) {
-                CharSequence sizeText = TextUtils.ellipsize(FileUtils.fileSizeToString(fileNode.fileSize, false),
-                    fileSizePaint, scaleX - 4, TextUtils.TruncateAt.MIDDLE);
-                canvas.drawText(sizeText.toString(), ofsX + 2,
-                    ofsY + fileNamePaint.getTextSize() + fileSizePaint.getTextSize() + 6, fileSizePaint);
-            }
-        }
-
-        if (ofsX + scaleX < canvas.getWidth()) {
-            for (FileTreeNode childNode: fileNode.childNodes) {
-                float childScaleY = scaleY * childNode.fileSize / (float) fileNode.fileSize;
-                if ((ofsY < canvas.getHeight()) && (ofsY + childScaleY > 0)) {
-                    drawFile(canvas, scaleX, childScaleY, ofsX + scaleX, ofsY, childNode);
-                }
-                ofsY += childScaleY;
-            }
-        }
+        fileSizesLayout.draw(canvas, viewScaleX, viewScaleY, viewOffsetX, viewOffsetY);
     }
 }
@@ -20,13 +20,19 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 
 import com.sergenious.mediabrowser.media.AbstractMediaView;
+import com.sergenious.mediabrowser.media.DecodedImageCache;
 import com.sergenious.mediabrowser.media.HistogramView;
 import com.sergenious.mediabrowser.media.MediaImageView;
 import com.sergenious.mediabrowser.ui.DataGridLayout;
 import com.sergenious.mediabrowser.ui.DialogUtils;
 import com.sergenious.mediabrowser.ui.gesture.ScaleMoveGestureDetector;
+import com.sergenious.mediabrowser.utils.BitmapPool;
+import com.sergenious.mediabrowser.utils.FileIndexer;
 import com.sergenious.mediabrowser.utils.FileUtils;
+import com.sergenious.mediabrowser.utils.ImageDecodingExecutor;
+import com.sergenious.mediabrowser.utils.MediaMetadata;
 import com.sergenious.mediabrowser.utils.MediaUtils;
+import com.sergenious.mediabrowser.utils.MetadataDatabase;
 import com.sergenious.mediabrowser.utils.UiUtils;
 
 import java.io.File;
@@ -36,6 +42,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -62,6 +69,7 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
     private Runnable clickRunnable;
     private Timer transientTimer;
     private boolean isTransientTimer;
+    private final List<Future<?>> prefetchFutures = new ArrayList<>();
 
     private static final RelativeLayout.LayoutParams MATCH_PARENT = new RelativeLayout.LayoutParams(
         ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
@@ -135,9 +143,22 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
         if (nextMediaView != null) {
             nextMediaView.destroy();
         }
+        cancelPrefetching();
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            DecodedImageCache.getInstance().clear(); // the shown views keep their own bitmaps
+            BitmapPool.getInstance().clear();
+        }
+        else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            DecodedImageCache.getInstance().trimToFraction(0.5f);
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.media_menu, menu);
@@ -273,7 +294,7 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
                 "fileSortMode", FileUtils.FileSortMode.PATH_DIRS_FILES.name()));
 
             mediaFileList.addAll(FileUtils.getFileList(currentFile.getParentFile(),
-                    MediaUtils.getAllMediaExtensions(), false, fileSortMode)
+                    MediaUtils.getMediaFileFilter(), false, fileSortMode)
                 .stream().map(f -> f.file).collect(Collectors.toList()));
         }
 
@@ -295,11 +316,10 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
                     File file = files.get(i);
 
                     if (file.isDirectory()) {
-                        mediaFileList.addAll(FileUtils.searchFiles(null, file,
-                                MediaUtils.getAllMediaExtensions(), FileUtils.FileSortMode.PATH,
-                                i * progressFactor, progressFactor, progressUpdater, canceled)
+                        mediaFileList.addAll(FileIndexer.getInstance(this).searchFiles(null, file,
+                                FileUtils.FileSortMode.PATH, i * progressFactor, progressFactor, progressUpdater, canceled)
                             .stream()
-                            .filter(f -> !f.file.isDirectory())
+                            .filter(f -> !f.isDirectory)
                             .map(f -> f.file)
                             .collect(Collectors.toList()));
                     }
@@ -338,6 +358,34 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
         if (currentMediaFileIndex < mediaFileList.size() - 1) {
             nextMediaView = addMediaView(mediaFileList.get(currentMediaFileIndex + 1), false, true);
         }
+        prefetchNeighbours(+1);
+    }
+
+    /** Decodes the previews of the images around the current one into the {@link DecodedImageCache},
+     * the nearest first and in the swiping direction first, so the fast swiping shows no empty frames. */
+    private void prefetchNeighbours(int direction) {
+        cancelPrefetching(); // the not yet started ones, the swiping went elsewhere
+
+        for (int distance = 1; distance <= Constants.MEDIA_PREFETCH_WINDOW; distance++) {
+            for (int side : new int[] {direction, -direction}) {
+                int index = currentMediaFileIndex + side * distance;
+                if ((index >= 0) && (index < mediaFileList.size())) {
+                    File file = mediaFileList.get(index);
+                    if (MediaUtils.isImageExtension(FileUtils.getFileExtension(file))) {
+                        prefetchFutures.add(ImageDecodingExecutor.getInstance().submit(
+                            ImageDecodingExecutor.Priority.PREFETCH,
+                            () -> DecodedImageCache.getInstance().load(getApplicationContext(), file, false)));
+                    }
+                }
+            }
+        }
+    }
+
+    private void cancelPrefetching() {
+        for (Future<?> future : prefetchFutures) {
+            ImageDecodingExecutor.getInstance().cancel(future);
+        }
+        prefetchFutures.clear();
     }
 
     private ImageButton createActionButton(Consumer<File> clickListener) {
@@ -372,8 +420,11 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
 
         String extension = FileUtils.getFileExtension(file);
         currentActionType = ActionType.NONE;
-        if (MediaUtils.isImageExtension(extension) && MediaUtils.isImagePano(file)) {
-            currentActionType = ActionType.PANO;
+        if (MediaUtils.isImageExtension(extension)) {
+            MediaMetadata metadata = MetadataDatabase.getInstance(getApplicationContext()).getMetadata(file);
+            if ((metadata != null) && metadata.isPano) {
+                currentActionType = ActionType.PANO;
+            }
         }
         if (MediaUtils.isVideoExtension(extension)) {
             currentActionType = ActionType.VIDEO;
@@ -546,6 +597,7 @@ public class MediaActivity extends Activity implements ScaleMoveGestureDetector.
             if (currentMediaFileIndex < mediaFileList.size() - 1) {
                 nextMediaView = addMediaView(mediaFileList.get(currentMediaFileIndex + 1), false, true);
             }
+            prefetchNeighbours(direction);
         });
     }
 }
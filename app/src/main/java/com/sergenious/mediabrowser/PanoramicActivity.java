@@ -53,6 +53,7 @@ public class PanoramicActivity extends Activity implements OnDeviceRotationChang
 
 		panoRenderer = new PanoramicRenderer(this,
 			() -> panoViewer.requestRender(),
+			runnable -> panoViewer.queueEvent(runnable),
 			clickedPoint -> {
 				isFullScreen = !isFullScreen;
 				UiUtils.requestFullScreen(this, isFullScreen);
@@ -0,0 +1,63 @@
+package com.sergenious.mediabrowser.filebrowser;
+
+import com.sergenious.mediabrowser.utils.HammingIndex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Groups the images by their perceptual hashes: the images within the Hamming distance are in the same group,
+ * also transitively, so a burst of the slowly changing shots is a single group.
+ * Each hash is only compared with the similar ones of the already added, found by a {@link HammingIndex}. */
+public class SimilarImageGrouper {
+    public static final int DEFAULT_MAX_DISTANCE = 10; // of the 64 bits
+
+    /** Returns the groups of at least two files, in the order of their first files in the given list.
+     * The files without the hashes are skipped. */
+    public static List<List<File>> groupSimilar(List<File> files, Map<String, Long> hashesByPath, int maxDistance) {
+        List<File> hashedFiles = new ArrayList<>();
+        HammingIndex hashIndex = new HammingIndex();
+        int[] groupParents = new int[files.size()];
+
+        for (File file : files) {
+            Long hash = hashesByPath.get(file.getAbsolutePath());
+            if (hash == null) {
+                continue;
+            }
+            int fileIndex = hashedFiles.size();
+            hashedFiles.add(file);
+            groupParents[fileIndex] = fileIndex;
+            hashIndex.find(hash, maxDistance, similarIndex -> union(groupParents, similarIndex, fileIndex));
+            hashIndex.add(hash);
+        }
+
+        Map<Integer, List<File>> groupsByRoot = new LinkedHashMap<>();
+        for (int i = 0; i < hashedFiles.size(); i++) {
+            groupsByRoot.computeIfAbsent(findRoot(groupParents, i), key -> new ArrayList<>()).add(hashedFiles.get(i));
+        }
+        List<List<File>> groups = new ArrayList<>();
+        for (List<File> group : groupsByRoot.values()) {
+            if (group.size() >= 2) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    /** The root of a group is its first file, so the groups are ordered by their first files. */
+    private static void union(int[] groupParents, int index1, int index2) {
+        int root1 = findRoot(groupParents, index1);
+        int root2 = findRoot(groupParents, index2);
+        groupParents[Math.max(root1, root2)] = Math.min(root1, root2);
+    }
+
+    private static int findRoot(int[] groupParents, int index) {
+        while (groupParents[index] != index) {
+            groupParents[index] = groupParents[groupParents[index]]; // path halving
+            index = groupParents[index];
+        }
+        return index;
+    }
+}
@@ -0,0 +1,210 @@
+package com.sergenious.mediabrowser.filebrowser;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.utils.ImageDecodingExecutor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/** Loads the thumbnails of the files around the viewport, the nearest to the viewport center first.
+ * The cached thumbnails are looked up in batches, while the missing ones are created one by one.
+ * Each update replaces the wanted files, so the files, which scrolled away, are not loaded anymore.
+ * The work runs in steps (a lookup batch, or a single thumbnail) on the shared {@link ImageDecodingExecutor},
+ * with up to the given number of the steps at once. */
+public class ThumbnailScheduler {
+    private static final int MAX_LOOKUP_BATCH_SIZE = 64;
+
+    public interface ThumbnailSource {
+        /** Returns only the found thumbnails. */
+        Map<File, Bitmap> loadCachedThumbnails(Collection<File> files);
+
+        /** Returns null, if the thumbnail cannot be created. */
+        Bitmap createThumbnail(File file);
+    }
+
+    private static class Request {
+        final File file;
+        int priority;
+        boolean isCacheChecked;
+
+        Request(File file, int priority) {
+            this.file = file;
+            this.priority = priority;
+        }
+    }
+
+    private final ThumbnailSource source;
+    private final BiConsumer<File, Bitmap> onThumbnailLoaded;
+    private final Object lock = new Object();
+    private final Comparator<Request> requestComparator = Comparator.comparingInt(r -> r.priority);
+    private final PriorityQueue<Request> lookupQueue = new PriorityQueue<>(requestComparator);
+    private final PriorityQueue<Request> createQueue = new PriorityQueue<>(requestComparator);
+    private final Map<File, Request> queuedRequests = new HashMap<>();
+    private final Set<File> runningFiles = new HashSet<>();
+    private Map<File, Integer> wantedFiles = Collections.emptyMap();
+    private final int maxParallelSteps;
+    private int numActiveSteps;
+    private volatile boolean isShutdown;
+
+    public ThumbnailScheduler(int maxParallelSteps, ThumbnailSource source, BiConsumer<File, Bitmap> onThumbnailLoaded) {
+        this.maxParallelSteps = maxParallelSteps;
+        this.source = source;
+        this.onThumbnailLoaded = onThumbnailLoaded;
+    }
+
+    /** Replaces the wanted files, with the priority as the distance from the viewport center (lower first).
+     * The already queued files are not duplicated, only their priority is updated. */
+    public void update(Map<File, Integer> filePriorities) {
+        synchronized (lock) {
+            wantedFiles = new HashMap<>(filePriorities);
+
+            Iterator<Request> iterator = queuedRequests.values().iterator();
+            while (iterator.hasNext()) {
+                Request request = iterator.next();
+                Integer priority = wantedFiles.get(request.file);
+                if ((priority == null) || (priority != request.priority)) {
+                    // scrolled away, or needs to be re-queued with the new priority
+                    getQueue(request).remove(request);
+                    if (priority == null) {
+                        iterator.remove();
+                    }
+                    else {
+                        request.priority = priority;
+                        getQueue(request).add(request);
+                    }
+                }
+            }
+
+            for (Map.Entry<File, Integer> fileEntry : wantedFiles.entrySet()) {
+                File file = fileEntry.getKey();
+                if (!queuedRequests.containsKey(file) && !runningFiles.contains(file)) {
+                    Request request = new Request(file, fileEntry.getValue());
+                    queuedRequests.put(file, request);
+                    lookupQueue.add(request);
+                }
+            }
+
+            startSteps();
+        }
+    }
+
+    public void cancelAll() {
+        update(Collections.emptyMap());
+    }
+
+    public void shutdown() {
+        isShutdown = true;
+        cancelAll();
+    }
+
+    private PriorityQueue<Request> getQueue(Request request) {
+        return request.isCacheChecked ? createQueue : lookupQueue;
+    }
+
+    /** Must be called within the lock. */
+    private void startSteps() {
+        int numQueuedRequests = lookupQueue.size() + createQueue.size();
+        while (!isShutdown && (numActiveSteps < maxParallelSteps) && (numActiveSteps < numQueuedRequests)) {
+            numActiveSteps++;
+            ImageDecodingExecutor.getInstance().submit(ImageDecodingExecutor.Priority.THUMBNAIL, this::runStep);
+        }
+    }
+
+    private void runStep() {
+        List<Request> lookupRequests = new ArrayList<>();
+        Request createRequest = null;
+
+        synchronized (lock) {
+            // the lookups are fast, so they are done first, to have the cached thumbnails shown quickly
+            while (!isShutdown && !lookupQueue.isEmpty() && (lookupRequests.size() < MAX_LOOKUP_BATCH_SIZE)) {
+                lookupRequests.add(startRequest(lookupQueue.poll()));
+            }
+            if (!isShutdown && lookupRequests.isEmpty() && !createQueue.isEmpty()) {
+                createRequest = startRequest(createQueue.poll());
+            }
+        }
+
+        try {
+            if (!lookupRequests.isEmpty()) {
+                lookupThumbnails(lookupRequests);
+            }
+            else if (createRequest != null) {
+                Bitmap thumbnail = source.createThumbnail(createRequest.file);
+                finishRequest(createRequest);
+                if (thumbnail != null) {
+                    onThumbnailLoaded.accept(createRequest.file, thumbnail);
+                }
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error loading thumbnail", e);
+            synchronized (lock) {
+                for (Request request : lookupRequests) {
+                    runningFiles.remove(request.file);
+                }
+                if (createRequest != null) {
+                    runningFiles.remove(createRequest.file);
+                }
+            }
+        }
+
+        synchronized (lock) {
+            numActiveSteps--;
+            startSteps(); // the next step goes to the queue of the executor again, after the more urgent decodes
+        }
+    }
+
+    private void lookupThumbnails(List<Request> lookupRequests) {
+        Map<File, Bitmap> thumbnails = source.loadCachedThumbnails(lookupRequests.stream()
+            .map(r -> r.file)
+            .collect(Collectors.toList()));
+
+        synchronized (lock) {
+            for (Request request : lookupRequests) {
+                runningFiles.remove(request.file);
+                Integer priority = wantedFiles.get(request.file);
+                if (!thumbnails.containsKey(request.file) && (priority != null)
+                    && !queuedRequests.containsKey(request.file)) {
+
+                    // not cached, and still wanted
+                    request.isCacheChecked = true;
+                    request.priority = priority;
+                    queuedRequests.put(request.file, request);
+                    createQueue.add(request);
+                }
+            }
+            startSteps();
+        }
+
+        for (Map.Entry<File, Bitmap> thumbnailEntry : thumbnails.entrySet()) {
+            onThumbnailLoaded.accept(thumbnailEntry.getKey(), thumbnailEntry.getValue());
+        }
+    }
+
+    private Request startRequest(Request request) {
+        queuedRequests.remove(request.file);
+        runningFiles.add(request.file);
+        return request;
+    }
+
+    private void finishRequest(Request request) {
+        synchronized (lock) {
+            runningFiles.remove(request.file);
+        }
+    }
+}
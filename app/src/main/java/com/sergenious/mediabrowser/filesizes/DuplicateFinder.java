@@ -0,0 +1,261 @@
+package com.sergenious.mediabrowser.filesizes;
+
+import android.util.Log;
+
+import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.utils.MediaFileFilter;
+import com.sergenious.mediabrowser.utils.MediaUtils;
+import com.sergenious.mediabrowser.utils.ProgressThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/** Finds the media files with the same content, in the stages, so only the likely duplicates are read completely:
+ * the files are grouped by their exact sizes from the file size tree (a file with a unique size has no duplicates),
+ * then by the hash of their first and last 64 kB, and only then by the hash of the whole content, read through
+ * the memory mapped chunks. The files of a stage are hashed in parallel. */
+public class DuplicateFinder {
+    private static final int EDGE_SIZE = 64 * 1024; // the bytes hashed at both ends of a file
+    private static final long MAPPED_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final double EDGE_HASH_PROGRESS_SHARE = 0.2; // the rest is for the full hashing
+
+    private final BiConsumer<String, Double> progressUpdater;
+    private final Supplier<Boolean> canceled;
+    private final AtomicLong progressDone = new AtomicLong();
+    private final ProgressThrottle progressThrottle = new ProgressThrottle();
+    private double progressStart;
+    private double progressFactor;
+
+    private static class Candidate {
+        final File file;
+        final long size;
+        ByteBuffer hash; // null, if the file could not be read
+
+        Candidate(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private interface Hasher {
+        ByteBuffer hash(Candidate candidate) throws IOException, NoSuchAlgorithmException;
+    }
+
+    public DuplicateFinder(BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled) {
+        this.progressUpdater = progressUpdater;
+        this.canceled = canceled;
+    }
+
+    /** Returns the groups of the files with the same content, those wasting the most space first,
+     * or null, if canceled. */
+    public List<List<File>> findDuplicates(FileSizeTree tree) {
+        List<List<Candidate>> groups = groupBySize(tree);
+
+        long edgeWork = 0;
+        for (List<Candidate> group : groups) {
+            edgeWork += group.size();
+        }
+        startStage(0, EDGE_HASH_PROGRESS_SHARE, edgeWork);
+        groups = groupByHash(groups, candidate -> {
+            ByteBuffer hash = hashEdges(candidate);
+            addProgress(candidate.file, 1);
+            return hash;
+        });
+        if (groups == null) {
+            return null;
+        }
+
+        // the files up to twice the edge size are already hashed completely
+        List<List<Candidate>> duplicateGroups = new ArrayList<>();
+        List<List<Candidate>> partialGroups = new ArrayList<>();
+        long contentWork = 0;
+        for (List<Candidate> group : groups) {
+            if (group.get(0).size <= 2 * EDGE_SIZE) {
+                duplicateGroups.add(group);
+            }
+            else {
+                partialGroups.add(group);
+                contentWork += group.size() * group.get(0).size;
+            }
+        }
+        startStage(EDGE_HASH_PROGRESS_SHARE, 1 - EDGE_HASH_PROGRESS_SHARE, contentWork);
+        groups = groupByHash(partialGroups, this::hashContent);
+        if (groups == null) {
+            return null;
+        }
+        duplicateGroups.addAll(groups);
+
+        duplicateGroups.sort(Comparator.comparingLong(
+            (List<Candidate> group) -> (group.size() - 1) * group.get(0).size).reversed());
+        List<List<File>> duplicates = new ArrayList<>(duplicateGroups.size());
+        for (List<Candidate> group : duplicateGroups) {
+            List<File> files = new ArrayList<>(group.size());
+            for (Candidate candidate : group) {
+                files.add(candidate.file);
+            }
+            files.sort(Comparator.comparing(File::getAbsolutePath));
+            duplicates.add(files);
+        }
+        return duplicates;
+    }
+
+    /** Returns the groups of at least two non-empty media files of the same size. */
+    private static List<List<Candidate>> groupBySize(FileSizeTree tree) {
+        MediaFileFilter mediaFileFilter = MediaUtils.getMediaFileFilter();
+        Map<Long, List<Integer>> nodesBySize = new HashMap<>();
+        for (int node = FileSizeTree.ROOT + 1; node < tree.getNodeCount(); node++) {
+            long size = tree.getSize(node);
+            if (!tree.isDirectory(node) && (size > 0) && mediaFileFilter.accept(tree.getName(node))) {
+                nodesBySize.computeIfAbsent(size, key -> new ArrayList<>(2)).add(node);
+            }
+        }
+
+        List<List<Candidate>> groups = new ArrayList<>();
+        for (Map.Entry<Long, List<Integer>> entry : nodesBySize.entrySet()) {
+            if (entry.getValue().size() >= 2) {
+                List<Candidate> group = new ArrayList<>(entry.getValue().size());
+                for (int node : entry.getValue()) {
+                    group.add(new Candidate(tree.getFile(node), entry.getKey()));
+                }
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    /** Hashes all the candidates in parallel, and splits the groups by the hashes,
+     * keeping only the groups of at least two files. Returns null, if canceled. */
+    private List<List<Candidate>> groupByHash(List<List<Candidate>> groups, Hasher hasher) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (List<Candidate> group : groups) {
+            for (Candidate candidate : group) {
+                tasks.add(() -> {
+                    if (canceled.get()) {
+                        return null;
+                    }
+                    try {
+                        candidate.hash = hasher.hash(candidate);
+                    }
+                    catch (IOException | SecurityException | NoSuchAlgorithmException e) {
+                        Log.e(Constants.appNameInternal, "Cannot hash file " + candidate.file.getAbsolutePath(), e);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        try {
+            executor.invokeAll(tasks);
+        }
+        catch (InterruptedException e) {
+            return null;
+        }
+        finally {
+            executor.shutdown();
+        }
+        if (canceled.get()) {
+            return null;
+        }
+
+        List<List<Candidate>> hashGroups = new ArrayList<>();
+        for (List<Candidate> group : groups) {
+            Map<ByteBuffer, List<Candidate>> candidatesByHash = new LinkedHashMap<>();
+            for (Candidate candidate : group) {
+                if (candidate.hash != null) {
+                    candidatesByHash.computeIfAbsent(candidate.hash, key -> new ArrayList<>(2)).add(candidate);
+                }
+            }
+            for (List<Candidate> hashGroup : candidatesByHash.values()) {
+                if (hashGroup.size() >= 2) {
+                    hashGroups.add(hashGroup);
+                }
+            }
+        }
+        return hashGroups;
+    }
+
+    /** Hashes the first and the last edge size bytes, which is the whole file, if not larger than twice the edge size.
+     * Returns null, if the file size is not the scanned one anymore. */
+    private static ByteBuffer hashEdges(Candidate candidate) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        ByteBuffer buffer = ByteBuffer.allocate(EDGE_SIZE);
+        try (FileChannel channel = FileChannel.open(candidate.file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != candidate.size) {
+                return null; // changed since scanned, the edges would not be those of the current content
+            }
+            readFully(channel, buffer, 0, Math.min(candidate.size, EDGE_SIZE));
+            digest.update(buffer);
+
+            long tailStart = Math.max(EDGE_SIZE, candidate.size - EDGE_SIZE);
+            if (tailStart < candidate.size) {
+                readFully(channel, buffer, tailStart, candidate.size - tailStart);
+                digest.update(buffer);
+            }
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, long length) throws IOException {
+        buffer.clear();
+        buffer.limit((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /** Hashes the whole content, through the memory mapped chunks, so it is not copied to the heap. */
+    private ByteBuffer hashContent(Candidate candidate) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        try (FileChannel channel = FileChannel.open(candidate.file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != candidate.size) {
+                return null; // changed since scanned
+            }
+            for (long position = 0; position < candidate.size; position += MAPPED_CHUNK_SIZE) {
+                if (canceled.get()) {
+                    return null;
+                }
+                long chunkSize = Math.min(MAPPED_CHUNK_SIZE, candidate.size - position);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, chunkSize);
+                digest.update(chunk);
+                addProgress(candidate.file, chunkSize);
+            }
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private void startStage(double start, double share, long work) {
+        progressDone.set(0);
+        progressStart = start;
+        progressFactor = (work > 0) ? share / work : 0;
+    }
+
+    private void addProgress(File file, long work) {
+        long done = progressDone.addAndGet(work);
+        if (progressThrottle.isUpdateDue()) {
+            progressUpdater.accept(file.getName(), progressStart + done * progressFactor);
+        }
+    }
+}
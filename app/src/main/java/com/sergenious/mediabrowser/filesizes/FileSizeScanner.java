@@ -0,0 +1,159 @@
+package com.sergenious.mediabrowser.filesizes;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.utils.DirectorySizeDatabase;
+import com.sergenious.mediabrowser.utils.DirectorySizeDatabase.DirectoryEntry;
+import com.sergenious.mediabrowser.utils.DirectoryWalker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/** Builds the file size tree in parallel with a {@link DirectoryWalker}, by the cached directory listings: only
+ * the directories, whose modification time changed since they were cached, are listed again (with a single stat
+ * per entry), the others cost a single stat of the directory. The changed listings are saved in batches,
+ * so they are not all kept in the memory.
+ * The {@link FileSizeStatistics} are collected in the same pass, by the walking threads separately. */
+public class FileSizeScanner {
+    private static final int SAVED_LISTINGS_BATCH_SIZE = 256;
+
+    private final DirectorySizeDatabase database;
+    private final BiConsumer<String, Double> progressUpdater;
+    private final Supplier<Boolean> canceled;
+    private final Queue<DirectorySizeDatabase.DirectoryListing> changedListings = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger changedListingCount = new AtomicInteger();
+    private final Queue<FileSizeStatistics> threadStatistics = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<FileSizeStatistics> currentThreadStatistics = ThreadLocal.withInitial(() -> {
+        FileSizeStatistics statistics = new FileSizeStatistics();
+        threadStatistics.add(statistics);
+        return statistics;
+    });
+
+    public FileSizeScanner(DirectorySizeDatabase database, BiConsumer<String, Double> progressUpdater,
+        Supplier<Boolean> canceled) {
+
+        this.database = database;
+        this.progressUpdater = progressUpdater;
+        this.canceled = canceled;
+    }
+
+    /** Returns null, if canceled. */
+    public FileSizeTree scan(File rootDir) {
+        FileSizeTree tree = new FileSizeTree(rootDir);
+        new DirectoryWalker<>(new SizeVisitor(tree), progressUpdater, canceled, 0, 1).walk(rootDir, FileSizeTree.ROOT);
+
+        saveChangedListings(0); // the saved listings are valid, even if canceled
+        return canceled.get() ? null : tree;
+    }
+
+    /** Returns the statistics of the files, merged from the walking threads. To be called after the scan. */
+    public FileSizeStatistics getStatistics() {
+        FileSizeStatistics statistics = new FileSizeStatistics();
+        for (FileSizeStatistics currentStatistics : threadStatistics) {
+            statistics.merge(currentStatistics);
+        }
+        return statistics;
+    }
+
+    /** The nodes are the indices in the tree. The entries of a directory are added at once, from the cache
+     * or listed again, so the children of a node are contiguous. */
+    private class SizeVisitor implements DirectoryWalker.Visitor<Integer> {
+        private final FileSizeTree tree;
+
+        SizeVisitor(FileSizeTree tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public Integer visitEntry(Integer parentNode, File file, BasicFileAttributes attributes, int depth) {
+            return null; // not called, all the directories are visited at once
+        }
+
+        @Override
+        public List<Pair<File, Integer>> visitDirectory(Integer directoryNode, File dir, int depth) {
+            List<DirectoryEntry> entries;
+            try {
+                long dirTime = Files.readAttributes(dir.toPath(), BasicFileAttributes.class).lastModifiedTime().toMillis();
+                entries = database.getEntries(dir, dirTime);
+                if (entries == null) {
+                    entries = listDirectory(dir);
+                    changedListings.add(new DirectorySizeDatabase.DirectoryListing(dir, dirTime, entries));
+                    if (changedListingCount.incrementAndGet() >= SAVED_LISTINGS_BATCH_SIZE) {
+                        saveChangedListings(SAVED_LISTINGS_BATCH_SIZE);
+                    }
+                }
+            }
+            catch (IOException | SecurityException e) {
+                Log.e(Constants.appNameInternal, "Cannot list directory " + dir.getAbsolutePath(), e);
+                return Collections.emptyList();
+            }
+
+            int firstChildIndex = tree.addChildren(directoryNode, entries);
+            FileSizeStatistics statistics = currentThreadStatistics.get();
+            List<Pair<File, Integer>> visitedEntries = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                DirectoryEntry entry = entries.get(i);
+                if (entry.isDirectory) {
+                    visitedEntries.add(new Pair<>(new File(dir, entry.name), firstChildIndex + i));
+                }
+                else {
+                    statistics.addFile(entry.name, entry.size, entry.time);
+                    visitedEntries.add(new Pair<>(null, null)); // only counted for the progress
+                }
+            }
+            return visitedEntries;
+        }
+
+        @Override
+        public void directoryWalked(Integer directoryNode) {
+            tree.finishDirectory(directoryNode); // the subdirectories are already summed
+        }
+    }
+
+    /** Saves the changed listings, if there are at least the given number of them. */
+    private synchronized void saveChangedListings(int minCount) {
+        if (changedListingCount.get() < Math.max(1, minCount)) {
+            return;
+        }
+        List<DirectorySizeDatabase.DirectoryListing> listings = new ArrayList<>();
+        DirectorySizeDatabase.DirectoryListing listing;
+        while ((listing = changedListings.poll()) != null) {
+            listings.add(listing);
+        }
+        changedListingCount.addAndGet(-listings.size());
+        database.saveListings(listings);
+    }
+
+    private static List<DirectoryEntry> listDirectory(File dir) throws IOException {
+        List<DirectoryEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path entry : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                }
+                catch (IOException | SecurityException e) {
+                    continue; // removed meanwhile, or not accessible
+                }
+                boolean isDirectory = attributes.isDirectory();
+                entries.add(new DirectoryEntry(entry.getFileName().toString(), isDirectory,
+                    isDirectory ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        return entries;
+    }
+}
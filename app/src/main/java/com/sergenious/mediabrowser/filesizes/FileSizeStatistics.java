@@ -0,0 +1,185 @@
+package com.sergenious.mediabrowser.filesizes;
+
+import com.sergenious.mediabrowser.utils.MediaUtils;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Aggregates of the scanned files: the totals by the extension, by the year of the last modification,
+ * by the size (in the power of 2 buckets), and of the files sharing their exact size with the other files
+ * (the upper bound of the duplicates). The scanning threads collect them in their own instances,
+ * which are merged, when the scan is finished. */
+public class FileSizeStatistics {
+    public static final int NUM_SIZE_BUCKETS = 64;
+    private static final int INITIAL_EXACT_SIZES_CAPACITY = 1024; // a power of 2
+
+    public static class Total {
+        public long count;
+        public long bytes;
+
+        void add(long count, long bytes) {
+            this.count += count;
+            this.bytes += bytes;
+        }
+    }
+
+    private final Map<String, Total> byExtension = new HashMap<>(); // lower case, empty if none
+    private final Map<Integer, Total> byYear = new TreeMap<>();
+    private final Total[] bySize = new Total[NUM_SIZE_BUCKETS];
+    private final Total total = new Total();
+
+    // the file counts by the exact non-zero sizes, in an open addressing hash table of the primitives,
+    // as there can be hundreds of thousands of the distinct sizes (a zero count is an empty slot)
+    private long[] exactSizes = new long[INITIAL_EXACT_SIZES_CAPACITY];
+    private int[] exactSizeCounts = new int[INITIAL_EXACT_SIZES_CAPACITY];
+    private int numExactSizes;
+
+    // the year of the previous file, as the files of a directory are mostly from the same year
+    private final Calendar calendar = Calendar.getInstance();
+    private int year;
+    private long yearStart = Long.MAX_VALUE;
+    private long yearEnd = Long.MIN_VALUE;
+
+    public FileSizeStatistics() {
+        for (int i = 0; i < NUM_SIZE_BUCKETS; i++) {
+            bySize[i] = new Total();
+        }
+    }
+
+    public void addFile(String name, long size, long time) {
+        total.add(1, size);
+
+        int dotPos = name.lastIndexOf('.');
+        String extension = (dotPos > 0) ? name.substring(dotPos + 1).toLowerCase() : "";
+        Total extensionTotal = byExtension.get(extension);
+        if (extensionTotal == null) {
+            extensionTotal = new Total();
+            byExtension.put(extension, extensionTotal);
+        }
+        extensionTotal.add(1, size);
+
+        if ((time < yearStart) || (time >= yearEnd)) {
+            calendar.setTimeInMillis(time);
+            year = calendar.get(Calendar.YEAR);
+            calendar.clear();
+            calendar.set(year, Calendar.JANUARY, 1);
+            yearStart = calendar.getTimeInMillis();
+            calendar.add(Calendar.YEAR, 1);
+            yearEnd = calendar.getTimeInMillis();
+        }
+        Total yearTotal = byYear.get(year);
+        if (yearTotal == null) {
+            yearTotal = new Total();
+            byYear.put(year, yearTotal);
+        }
+        yearTotal.add(1, size);
+
+        bySize[getSizeBucket(size)].add(1, size);
+        if (size > 0) {
+            addExactSize(size, 1);
+        }
+    }
+
+    public void merge(FileSizeStatistics other) {
+        total.add(other.total.count, other.total.bytes);
+        for (Map.Entry<String, Total> entry : other.byExtension.entrySet()) {
+            byExtension.computeIfAbsent(entry.getKey(), key -> new Total())
+                .add(entry.getValue().count, entry.getValue().bytes);
+        }
+        for (Map.Entry<Integer, Total> entry : other.byYear.entrySet()) {
+            byYear.computeIfAbsent(entry.getKey(), key -> new Total())
+                .add(entry.getValue().count, entry.getValue().bytes);
+        }
+        for (int i = 0; i < NUM_SIZE_BUCKETS; i++) {
+            bySize[i].add(other.bySize[i].count, other.bySize[i].bytes);
+        }
+        for (int slot = 0; slot < other.exactSizes.length; slot++) {
+            if (other.exactSizeCounts[slot] > 0) {
+                addExactSize(other.exactSizes[slot], other.exactSizeCounts[slot]);
+            }
+        }
+    }
+
+    public Total getTotal() {
+        return total;
+    }
+
+    public Map<String, Total> getByExtension() {
+        return byExtension;
+    }
+
+    /** Returns the totals of the images, the videos and the other files, in this order. */
+    public Total[] getByType() {
+        Total[] byType = {new Total(), new Total(), new Total()};
+        for (Map.Entry<String, Total> entry : byExtension.entrySet()) {
+            int type = MediaUtils.isImageExtension(entry.getKey()) ? 0
+                : MediaUtils.isVideoExtension(entry.getKey()) ? 1 : 2;
+            byType[type].add(entry.getValue().count, entry.getValue().bytes);
+        }
+        return byType;
+    }
+
+    /** Ordered by the year. */
+    public Map<Integer, Total> getByYear() {
+        return byYear;
+    }
+
+    /** The bucket i has the sizes from 2^(i-1) to 2^i - 1 (the bucket 0 has the empty files). */
+    public Total[] getBySize() {
+        return bySize;
+    }
+
+    /** The non-empty files, whose exact size is shared with at least one other file. */
+    public Total getSameSize() {
+        Total sameSize = new Total();
+        for (int slot = 0; slot < exactSizes.length; slot++) {
+            if (exactSizeCounts[slot] >= 2) {
+                sameSize.add(exactSizeCounts[slot], exactSizeCounts[slot] * exactSizes[slot]);
+            }
+        }
+        return sameSize;
+    }
+
+    /** Of the files of the same size, all but one of each size, the most space the duplicates could waste. */
+    public Total getSameSizeExtraCopies() {
+        Total extraCopies = new Total();
+        for (int slot = 0; slot < exactSizes.length; slot++) {
+            if (exactSizeCounts[slot] >= 2) {
+                extraCopies.add(exactSizeCounts[slot] - 1, (exactSizeCounts[slot] - 1) * exactSizes[slot]);
+            }
+        }
+        return extraCopies;
+    }
+
+    private void addExactSize(long size, int count) {
+        if (2 * (numExactSizes + 1) > exactSizes.length) {
+            long[] oldSizes = exactSizes;
+            int[] oldCounts = exactSizeCounts;
+            exactSizes = new long[oldSizes.length * 2];
+            exactSizeCounts = new int[oldSizes.length * 2];
+            numExactSizes = 0;
+            for (int slot = 0; slot < oldSizes.length; slot++) {
+                if (oldCounts[slot] > 0) {
+                    addExactSize(oldSizes[slot], oldCounts[slot]);
+                }
+            }
+        }
+
+        int mask = exactSizes.length - 1;
+        int slot = (int) ((size * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while ((exactSizeCounts[slot] > 0) && (exactSizes[slot] != size)) {
+            slot = (slot + 1) & mask;
+        }
+        if (exactSizeCounts[slot] == 0) {
+            exactSizes[slot] = size;
+            numExactSizes++;
+        }
+        exactSizeCounts[slot] += count;
+    }
+
+    public static int getSizeBucket(long size) {
+        return Math.min(NUM_SIZE_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(size));
+    }
+}
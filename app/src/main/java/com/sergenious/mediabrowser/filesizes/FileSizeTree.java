@@ -0,0 +1,173 @@
+package com.sergenious.mediabrowser.filesizes;
+
+import com.sergenious.mediabrowser.utils.DirectorySizeDatabase.DirectoryEntry;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/** File size tree in the primitive arrays, indexed by the node index, so a tree of millions of files does not need
+ * millions of objects. The children of a directory are stored contiguously, and their order by the size (the largest
+ * first) is a permutation of that range. The names are in a shared character pool, and the files are created
+ * only when needed, from the names of the ancestors.
+ * The tree is modified only by the scanning, concurrently for the different directories; the reading methods
+ * are to be used when the scanning is finished. */
+public class FileSizeTree {
+    public static final int ROOT = 0;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_CHILDREN = -1; // the child count of the files
+
+    private final File rootDir;
+    private int nodeCount;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] childCounts;
+    private int[] childOrder; // the node indices of the sorted children, in the range of the children
+    private int[] nameOffsets;
+    private short[] nameLengths;
+    private long[] sizes;
+    private char[] namePool;
+    private int namePoolLength;
+
+    public FileSizeTree(File rootDir) {
+        this.rootDir = rootDir;
+        parents = new int[INITIAL_CAPACITY];
+        firstChildren = new int[INITIAL_CAPACITY];
+        childCounts = new int[INITIAL_CAPACITY];
+        childOrder = new int[INITIAL_CAPACITY];
+        nameOffsets = new int[INITIAL_CAPACITY];
+        nameLengths = new short[INITIAL_CAPACITY];
+        sizes = new long[INITIAL_CAPACITY];
+        namePool = new char[INITIAL_CAPACITY * 16];
+
+        // the root, its name is from the root directory
+        parents[ROOT] = -1;
+        childOrder[ROOT] = ROOT;
+        nodeCount = 1;
+    }
+
+    /** Adds the entries as the children of the directory node, returns the index of the first one.
+     * The sizes of the subdirectories are set by {@link #finishDirectory}. */
+    public synchronized int addChildren(int parentIndex, List<DirectoryEntry> entries) {
+        int firstIndex = nodeCount;
+        ensureCapacity(nodeCount + entries.size());
+
+        for (DirectoryEntry entry : entries) {
+            int index = nodeCount++;
+            parents[index] = parentIndex;
+            firstChildren[index] = 0;
+            childCounts[index] = entry.isDirectory ? 0 : NO_CHILDREN;
+            childOrder[index] = index;
+            sizes[index] = entry.size;
+
+            int nameLength = Math.min(entry.name.length(), Short.MAX_VALUE);
+            if (namePoolLength + nameLength > namePool.length) {
+                namePool = Arrays.copyOf(namePool, Math.max(namePool.length * 2, namePoolLength + nameLength));
+            }
+            entry.name.getChars(0, nameLength, namePool, namePoolLength);
+            nameOffsets[index] = namePoolLength;
+            nameLengths[index] = (short) nameLength;
+            namePoolLength += nameLength;
+        }
+
+        firstChildren[parentIndex] = firstIndex;
+        childCounts[parentIndex] = entries.size();
+        return firstIndex;
+    }
+
+    /** Sums the sizes of the children, and sorts them. The subdirectories must be finished already. */
+    public synchronized void finishDirectory(int index) {
+        int first = firstChildren[index];
+        int count = Math.max(0, childCounts[index]);
+        long size = 0;
+        for (int i = first; i < first + count; i++) {
+            size += sizes[i];
+        }
+        sizes[index] = size;
+        sortBySizes(first, first + count);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public boolean isDirectory(int index) {
+        return childCounts[index] != NO_CHILDREN;
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    /** Returns 0 for the files. */
+    public int getChildCount(int index) {
+        return Math.max(0, childCounts[index]);
+    }
+
+    /** Returns the index of the n-th largest child. */
+    public int getChild(int index, int n) {
+        return childOrder[firstChildren[index] + n];
+    }
+
+    public String getName(int index) {
+        return (index == ROOT) ? rootDir.getName() : new String(namePool, nameOffsets[index], nameLengths[index]);
+    }
+
+    /** Creates the file from the names of the node and its ancestors. */
+    public File getFile(int index) {
+        if (index == ROOT) {
+            return rootDir;
+        }
+        return new File(getFile(parents[index]), getName(index));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parents.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, parents.length * 2);
+        parents = Arrays.copyOf(parents, newCapacity);
+        firstChildren = Arrays.copyOf(firstChildren, newCapacity);
+        childCounts = Arrays.copyOf(childCounts, newCapacity);
+        childOrder = Arrays.copyOf(childOrder, newCapacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, newCapacity);
+        nameLengths = Arrays.copyOf(nameLengths, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+    }
+
+    /** Merge sort of the order range by the sizes, the largest first, without boxing the indices. */
+    private void sortBySizes(int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int[] buffer = new int[to - from];
+        mergeSort(from, to, buffer);
+    }
+
+    private void mergeSort(int from, int to, int[] buffer) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(from, middle, buffer);
+        mergeSort(middle, to, buffer);
+        if (sizes[childOrder[middle - 1]] >= sizes[childOrder[middle]]) {
+            return; // already in order
+        }
+
+        int left = from;
+        int right = middle;
+        int count = 0;
+        while ((left < middle) && (right < to)) {
+            buffer[count++] = (sizes[childOrder[left]] >= sizes[childOrder[right]]) ? childOrder[left++] : childOrder[right++];
+        }
+        while (left < middle) {
+            buffer[count++] = childOrder[left++];
+        }
+        while (right < to) {
+            buffer[count++] = childOrder[right++];
+        }
+        System.arraycopy(buffer, 0, childOrder, from, count);
+    }
+}
@@ -0,0 +1,181 @@
+package com.sergenious.mediabrowser.filesizes;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import com.sergenious.mediabrowser.utils.FileUtils;
+
+/** Icicle layout of the file size tree: the columns are the tree levels, and the children are stacked
+ * in the span of their parent by their sizes. The offsets of the children are computed once, as the fractions
+ * of their parent span, so the zooming and the panning only scale and move them.
+ * The drawing visits only the visible nodes: the first visible child is found by a binary search, and the children
+ * smaller than a few pixels (the rest of the children, as they are sorted by their sizes) are drawn as a single
+ * aggregate, so the drawing cost is bounded by the screen, not by the tree size.
+ * The labels are built only for the drawn nodes, kept in a small cache, and built again when the column width changes. */
+public class FileSizesLayout {
+    private static final float MIN_NODE_HEIGHT = 3; // px, the smaller nodes are aggregated
+    private static final float MIN_RECT_HEIGHT = 4; // px, the smaller rectangles are not outlined
+    private static final int MAX_CACHED_LABELS = 1024; // more than fit on the screen
+
+    private final FileSizeTree tree;
+    private final int maxDepth;
+    private final TextPaint fileNamePaint;
+    private final TextPaint fileSizePaint;
+    private final Paint rectOutlinePaint;
+    private final Paint rectFillPaint;
+    private final Paint otherFillPaint;
+
+    // by the node index, the top as the fraction of the parent span, the heights follow from the sizes
+    private final float[] layoutOffsets;
+    private final LruCache<Integer, Labels> labelsCache = new LruCache<>(MAX_CACHED_LABELS); // by the node index
+    private final SparseArray<String> otherLabels = new SparseArray<>(); // by the count
+
+    private static class Labels {
+        final float width;
+        final String name;
+        final String size;
+
+        Labels(float width, String name, String size) {
+            this.width = width;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    public FileSizesLayout(FileSizeTree tree, TextPaint fileNamePaint, TextPaint fileSizePaint,
+        Paint rectOutlinePaint, Paint rectFillPaint, Paint otherFillPaint) {
+
+        this.tree = tree;
+        this.fileNamePaint = fileNamePaint;
+        this.fileSizePaint = fileSizePaint;
+        this.rectOutlinePaint = rectOutlinePaint;
+        this.rectFillPaint = rectFillPaint;
+        this.otherFillPaint = otherFillPaint;
+
+        layoutOffsets = new float[tree.getNodeCount()];
+        maxDepth = layoutChildren(FileSizeTree.ROOT, 0);
+    }
+
+    /** The number of the columns is one more. */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** The column width is scaleX, and the root spans over scaleY. */
+    public void draw(Canvas canvas, float scaleX, float scaleY, float offsetX, float offsetY) {
+        drawNode(canvas, FileSizeTree.ROOT, scaleX, offsetX, offsetY, scaleY);
+    }
+
+    /** Returns the maximum depth of the subtree. */
+    private int layoutChildren(int node, int depth) {
+        int maxDepth = tree.isDirectory(node) ? depth + 1 : depth;
+        long size = tree.getSize(node);
+        long childrenSize = 0;
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            int childNode = tree.getChild(node, i);
+            layoutOffsets[childNode] = (size > 0) ? (float) ((double) childrenSize / size) : 0;
+            childrenSize += tree.getSize(childNode);
+            maxDepth = Math.max(maxDepth, layoutChildren(childNode, depth + 1));
+        }
+        return maxDepth;
+    }
+
+    /** The top and the height are in double, as they can be far beyond the screen, when zoomed in. */
+    private void drawNode(Canvas canvas, int node, float scaleX, float x, double top, double height) {
+        if (x + scaleX > 0) {
+            drawRect(canvas, x, (float) top, scaleX, (float) height, rectFillPaint);
+            drawLabels(canvas, node, x, (float) top, scaleX, (float) height);
+        }
+
+        int childCount = tree.getChildCount(node);
+        if ((x + scaleX >= canvas.getWidth()) || (childCount == 0) || (tree.getSize(node) == 0)) {
+            return; // the children of an empty node would have no height
+        }
+
+        int canvasHeight = canvas.getHeight();
+        double sizeScale = height / tree.getSize(node); // px per byte
+        for (int i = findFirstVisibleChild(node, -top / height); i < childCount; i++) {
+            int childNode = tree.getChild(node, i);
+            double childTop = top + layoutOffsets[childNode] * height;
+            if (childTop >= canvasHeight) {
+                break;
+            }
+            double childHeight = tree.getSize(childNode) * sizeScale;
+            if (childHeight < MIN_NODE_HEIGHT) {
+                // the rest of the children are even smaller
+                drawOther(canvas, childCount - i, x + scaleX, (float) childTop, scaleX,
+                    (float) (top + height - childTop));
+                break;
+            }
+            drawNode(canvas, childNode, scaleX, x + scaleX, childTop, childHeight);
+        }
+    }
+
+    /** Returns the index of the first child, which ends below the given position (in the fractions of the node). */
+    private int findFirstVisibleChild(int node, double top) {
+        long size = tree.getSize(node);
+        int low = 0;
+        int high = tree.getChildCount(node) - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int childNode = tree.getChild(node, middle);
+            if (layoutOffsets[childNode] + (double) tree.getSize(childNode) / size <= top) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void drawRect(Canvas canvas, float x, float top, float width, float height, Paint fillPaint) {
+        if (height > MIN_RECT_HEIGHT) {
+            canvas.drawRect(x + 2, top + 2, x + width - 4, top + height - 4, fillPaint);
+            canvas.drawRect(x + 2, top + 2, x + width - 4, top + height - 4, rectOutlinePaint);
+        }
+        else if (height > 0) {
+            canvas.drawRect(x + 2, top, x + width - 4, top + height, fillPaint);
+        }
+    }
+
+    private void drawLabels(Canvas canvas, int node, float x, float top, float width, float height) {
+        if (height <= fileNamePaint.getTextSize() + 4) {
+            return;
+        }
+        Labels labels = labelsCache.get(node);
+        if ((labels == null) || (labels.width != width)) {
+            String name = tree.isDirectory(node)
+                ? tree.getName(node) + " [" + tree.getChildCount(node) + "]"
+                : tree.getName(node);
+            labels = new Labels(width,
+                TextUtils.ellipsize(name, fileNamePaint, width - 4, TextUtils.TruncateAt.MIDDLE).toString(),
+                TextUtils.ellipsize(FileUtils.fileSizeToString(tree.getSize(node), false),
+                    fileSizePaint, width - 4, TextUtils.TruncateAt.MIDDLE).toString());
+            labelsCache.put(node, labels);
+        }
+
+        canvas.drawText(labels.name, x + 2, top + fileNamePaint.getTextSize(), fileNamePaint);
+        if (height > fileNamePaint.getTextSize() + fileSizePaint.getTextSize() + 8) {
+            canvas.drawText(labels.size, x + 2,
+                top + fileNamePaint.getTextSize() + fileSizePaint.getTextSize() + 6, fileSizePaint);
+        }
+    }
+
+    /** Draws the aggregate of the given number of the smallest children. */
+    private void drawOther(Canvas canvas, int count, float x, float top, float width, float height) {
+        drawRect(canvas, x, top, width, height, otherFillPaint);
+        if (height > fileNamePaint.getTextSize() + 4) {
+            String otherLabel = otherLabels.get(count);
+            if (otherLabel == null) {
+                otherLabel = "\u2026 [" + count + "]";
+                otherLabels.put(count, otherLabel);
+            }
+            canvas.drawText(otherLabel, x + 2, top + fileNamePaint.getTextSize(), fileNamePaint);
+        }
+    }
+}
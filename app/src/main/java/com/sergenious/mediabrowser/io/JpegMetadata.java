@@ -0,0 +1,55 @@
+package com.sergenious.mediabrowser.io;
+
+import com.sergenious.mediabrowser.io.exif.ExifTag;
+
+import org.w3c.dom.Document;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class JpegMetadata {
+	private final int width;
+	private final int height;
+	private final Map<ExifTag, Object> exif;
+	private final Document xmp;
+	private final long thumbnailOffset;
+	private final int thumbnailLength;
+
+	public JpegMetadata(int width, int height, Map<ExifTag, Object> exif, Document xmp,
+		long thumbnailOffset, int thumbnailLength) {
+
+		this.width = width;
+		this.height = height;
+		this.exif = (exif != null) ? Collections.unmodifiableMap(exif) : Collections.emptyMap();
+		this.xmp = xmp;
+		this.thumbnailOffset = thumbnailOffset;
+		this.thumbnailLength = thumbnailLength;
+	}
+
+	/** Width of the frame, as written in the SOF segment (without the EXIF orientation), 0 if unknown. */
+	public int getWidth() {
+		return width;
+	}
+
+	/** Height of the frame, as written in the SOF segment (without the EXIF orientation), 0 if unknown. */
+	public int getHeight() {
+		return height;
+	}
+
+	public Map<ExifTag, Object> getExif() {
+		return exif;
+	}
+
+	public Document getXmp() {
+		return xmp;
+	}
+
+	/** Offset of the embedded EXIF JPEG thumbnail in the file, 0 if there is none. */
+	public long getThumbnailOffset() {
+		return thumbnailOffset;
+	}
+
+	public int getThumbnailLength() {
+		return thumbnailLength;
+	}
+}
@@ -0,0 +1,137 @@
+package com.sergenious.mediabrowser.io;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.io.exif.ExifReader;
+import com.sergenious.mediabrowser.io.exif.ExifTag;
+import com.sergenious.mediabrowser.io.xmp.XmpReader;
+import com.sergenious.mediabrowser.utils.FileUtils;
+
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/** Walks the JPEG marker segments only once, up to the start of the compressed image data,
+ * and collects the EXIF, XMP and the frame dimensions with a single opened file. */
+public class JpegMetadataScanner {
+	private static final int MARKER_SOI = 0xD8;
+	private static final int MARKER_EOI = 0xD9;
+	private static final int MARKER_SOS = 0xDA;
+	private static final int MARKER_APP1 = 0xE1;
+	private static final byte[] EXIF_PREFIX = {'E', 'x', 'i', 'f', 0, 0};
+	private static final byte[] XMP_PREFIX = (XmpReader.NS_XAP + "\0").getBytes(StandardCharsets.ISO_8859_1);
+
+	public static boolean isJpeg(File file) {
+		String extension = FileUtils.getFileExtension(file);
+		return "jpg".equals(extension) || "jpeg".equals(extension);
+	}
+
+	/** Returns null, if the file is not a JPEG file. */
+	public static JpegMetadata scan(File file, Collection<ExifTag> exifFilter) throws IOException {
+		if (!isJpeg(file)) {
+			return null;
+		}
+
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			if ((input.read() != 0xFF) || (input.read() != MARKER_SOI)) {
+				return null;
+			}
+
+			int width = 0, height = 0;
+			Map<ExifTag, Object> exif = null;
+			Document xmp = null;
+			long thumbnailOffset = 0;
+			int thumbnailLength = 0;
+			byte[] prefixBuffer = new byte[XMP_PREFIX.length];
+
+			while (true) {
+				int marker = readMarker(input);
+				if ((marker < 0) || (marker == MARKER_EOI) || (marker == MARKER_SOS)) {
+					break; // EOF, or the compressed data starts, where no more metadata is expected
+				}
+				if ((marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD7))) {
+					continue; // markers without payload
+				}
+
+				int segmentLength = input.readUnsignedShort() - 2;
+				long segmentOffset = input.getFilePointer();
+				if (segmentLength < 0) {
+					break; // corrupted
+				}
+
+				if (isStartOfFrame(marker) && (width == 0) && (segmentLength >= 5)) {
+					int ignored = input.read(); // sample precision
+					height = input.readUnsignedShort();
+					width = input.readUnsignedShort();
+				}
+				else if ((marker == MARKER_APP1) && ((exif == null) || (xmp == null))) {
+					int prefixLength = input.read(prefixBuffer, 0, Math.min(segmentLength, prefixBuffer.length));
+
+					try {
+						if ((exif == null) && startsWith(prefixBuffer, prefixLength, EXIF_PREFIX)) {
+							// the whole EXIF segment is at most 64 kB, so it is parsed from memory
+							byte[] exifData = new byte[segmentLength - EXIF_PREFIX.length];
+							input.seek(segmentOffset + EXIF_PREFIX.length);
+							input.readFully(exifData);
+							exif = ExifReader.parse(exifData, exifFilter);
+
+							Pair<Integer, Integer> thumbnailRange = ExifReader.findThumbnail(exifData);
+							if (thumbnailRange != null) {
+								thumbnailOffset = segmentOffset + EXIF_PREFIX.length + thumbnailRange.first;
+								thumbnailLength = thumbnailRange.second;
+							}
+						}
+						else if ((xmp == null) && startsWith(prefixBuffer, prefixLength, XMP_PREFIX)) {
+							byte[] xmpData = new byte[segmentLength - XMP_PREFIX.length];
+							input.readFully(xmpData);
+							xmp = XmpReader.parse(new String(xmpData, StandardCharsets.UTF_8));
+						}
+					}
+					catch (Exception e) {
+						// a corrupted metadata segment should not prevent reading the rest
+						Log.e(Constants.appNameInternal, "Error parsing JPEG " + file.getAbsolutePath(), e);
+					}
+				}
+
+				input.seek(segmentOffset + segmentLength);
+			}
+
+			return new JpegMetadata(width, height, exif, xmp, thumbnailOffset, thumbnailLength);
+		}
+	}
+
+	private static int readMarker(RandomAccessFile input) throws IOException {
+		int ch = input.read();
+		if (ch != 0xFF) {
+			return -1; // EOF, or not positioned at a marker, which means a corrupted file
+		}
+		while (ch == 0xFF) { // optional fill bytes
+			ch = input.read();
+		}
+		return ch;
+	}
+
+	private static boolean isStartOfFrame(int marker) {
+		// SOF0..SOF15, except DHT (C4), JPG (C8) and DAC (CC), which share the same range
+		return (marker >= 0xC0) && (marker <= 0xCF) && (marker != 0xC4) && (marker != 0xC8) && (marker != 0xCC);
+	}
+
+	private static boolean startsWith(byte[] buffer, int length, byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
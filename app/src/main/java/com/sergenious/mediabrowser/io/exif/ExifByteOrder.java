@@ -1,14 +1,22 @@
 package com.sergenious.mediabrowser.io.exif;
 
+import java.nio.ByteOrder;
+
 public enum ExifByteOrder {
-    INTEL(0x4949),
-    MOTOROLA(0x4D4D),
-    UNKNOWN(0);
+    INTEL(0x4949, ByteOrder.LITTLE_ENDIAN),
+    MOTOROLA(0x4D4D, ByteOrder.BIG_ENDIAN),
+    UNKNOWN(0, ByteOrder.LITTLE_ENDIAN);
 
     private final int code;
+    private final ByteOrder byteOrder;
 
-    ExifByteOrder(int code) {
+    ExifByteOrder(int code, ByteOrder byteOrder) {
         this.code = code;
+        this.byteOrder = byteOrder;
+    }
+
+    public ByteOrder getByteOrder() {
+        return byteOrder;
     }
 
     public static ExifByteOrder fromCode(int code) {
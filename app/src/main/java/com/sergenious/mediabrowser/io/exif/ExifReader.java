@@ -2,43 +2,87 @@ package com.sergenious.mediabrowser.io.exif;
 
 import android.graphics.PointF;
 import android.util.Log;
+import android.util.Pair;
 
 import com.sergenious.mediabrowser.Constants;
-import com.sergenious.mediabrowser.io.JpegAppExtractor;
 
-import java.io.DataInput;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.TreeMap;
 
 public class ExifReader {
-	private static final String EXIF = "Exif";
 	private static final byte[] UNDEFINED_TEXT = {0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
 	private static final byte[] ASCII = {0x41, 0x53, 0x43, 0x49, 0x49, 0x00, 0x00, 0x00};
 	private static final byte[] JIS = {0x4A, 0x49, 0x53, 0x00, 0x00, 0x00, 0x00, 0x00};
 	private static final byte[] UNICODE = {0x55, 0x4E, 0x49, 0x43, 0x4F, 0x44, 0x45, 0x00};
+	private static final int IFD_ENTRY_SIZE = 12;
 
-	public static Map<ExifTag, Object> extract(File file, Collection<ExifTag> filter) throws IOException {
+	/** Parses the EXIF data from the APP1 segment content, which is already in memory.
+	 * The data starts with the TIFF header, all the IFD offsets are relative to it. */
+	public static Map<ExifTag, Object> parse(byte[] tiffData, Collection<ExifTag> filter) throws IOException {
 		Map<ExifTag, Object> exifMetadata = new TreeMap<>(Comparator.comparingInt(ExifTag::getSortOrder));
 
-		boolean isJpeg = JpegAppExtractor.extract(file, (appName, appFileOfs, appStream, appStreamSize) -> {
-			if (appName.equals(EXIF)) {
-				parseExif(exifMetadata, file, appFileOfs, appStream, appStreamSize, filter);
-				return JpegAppExtractor.JpegAppReadState.READ_COMPLETED;
+		ExifByteOrder byteOrder = readByteOrder(tiffData);
+		ByteBuffer buffer = ByteBuffer.wrap(tiffData).order(byteOrder.getByteOrder());
+		long ifd0Offset = unsigned32bit(buffer, 4);
+		if (!isValidIfdOffset(buffer, ifd0Offset)) {
+			throw new IOException("Invalid EXIF IFD offset");
+		}
+		parseExifIFD(exifMetadata, buffer, ifd0Offset, ExifIfdType.STANDARD, byteOrder, filter);
+
+		return exifMetadata;
+	}
+
+	/** Finds the embedded JPEG thumbnail, which is referenced from IFD1 (the IFD following the main image IFD0).
+	 * Returns its offset (relative to the TIFF header) and length, or null, if there is none. */
+	public static Pair<Integer, Integer> findThumbnail(byte[] tiffData) throws IOException {
+		ExifByteOrder byteOrder = readByteOrder(tiffData);
+		ByteBuffer buffer = ByteBuffer.wrap(tiffData).order(byteOrder.getByteOrder());
+
+		long ifd0Offset = unsigned32bit(buffer, 4);
+		if ((ifd0Offset < 0) || (ifd0Offset + 2 > buffer.limit())) {
+			return null;
+		}
+		long nextIfdPointerOffset = ifd0Offset + 2 + (long) unsigned16bit(buffer, (int) ifd0Offset) * IFD_ENTRY_SIZE;
+		if (nextIfdPointerOffset + 4 > buffer.limit()) {
+			return null;
+		}
+		long ifd1Offset = unsigned32bit(buffer, (int) nextIfdPointerOffset);
+		if ((ifd1Offset == 0) || (ifd1Offset + 2 > buffer.limit())) {
+			return null;
+		}
+
+		long thumbnailOffset = 0, thumbnailLength = 0;
+		int entryOffset = (int) ifd1Offset + 2;
+		int entryCount = unsigned16bit(buffer, (int) ifd1Offset);
+		for (int entryIndex = 0; entryIndex < entryCount; entryIndex++, entryOffset += IFD_ENTRY_SIZE) {
+			if (entryOffset + IFD_ENTRY_SIZE > buffer.limit()) {
+				break; // truncated IFD
+			}
+
+			ExifTag tag = ExifTag.fromCode(ExifIfdType.STANDARD, unsigned16bit(buffer, entryOffset));
+			ExifFieldType fieldType = ExifFieldType.fromCode(unsigned16bit(buffer, entryOffset + 2));
+			long value = (fieldType == ExifFieldType.SHORT)
+				? unsigned16bit(buffer, entryOffset + 8)
+				: unsigned32bit(buffer, entryOffset + 8);
+
+			if (tag == ExifTag.JPEG_INTERCHANGE_FORMAT) {
+				thumbnailOffset = value;
 			}
-			return JpegAppExtractor.JpegAppReadState.UNREAD;
-		});
+			else if (tag == ExifTag.JPEG_INTERCHANGE_FORMAT_LENGTH) {
+				thumbnailLength = value;
+			}
+		}
 
-		return isJpeg ? exifMetadata : Collections.emptyMap();
+		if ((thumbnailOffset <= 0) || (thumbnailLength <= 0) || (thumbnailOffset + thumbnailLength > buffer.limit())) {
+			return null; // no JPEG thumbnail, or pointing outside of the segment
+		}
+		return new Pair<>((int) thumbnailOffset, (int) thumbnailLength);
 	}
 
 	public static PointF getGpsPositionLonLat(Map<ExifTag, Object> exifMetadata) {
@@ -61,67 +105,48 @@ public class ExifReader {
 		return null;
 	}
 
-	private static void parseExif(Map<ExifTag, Object> metadata, File file, long fileOfs,
-		InputStream is, long length, Collection<ExifTag> filter) throws IOException {
-
-		int ignored = is.read(); // padding
+	private static void parseExifIFD(Map<ExifTag, Object> data, ByteBuffer tiffData, long ifdOffset,
+		ExifIfdType ifdType, ExifByteOrder byteOrder, Collection<ExifTag> filter) {
 
-		ExifByteOrder byteOrder = ExifByteOrder.fromCode(read16bit(ExifByteOrder.UNKNOWN, is));
-		int version = read16bit(byteOrder, is);
-		long ifdOffset = read32bit(byteOrder, is);
+		int entryOffset = (int) ifdOffset + 2;
+		int entryCount = unsigned16bit(tiffData, (int) ifdOffset);
 
-		if (byteOrder == ExifByteOrder.UNKNOWN) {
-			throw new IOException("Invalid EXIF byte order");
-		}
-		if (version < 0x2a) {
-			throw new IOException("Invalid EXIF version");
-		}
-
-		long toSkip = length - 9;
-		if (is.skip(toSkip) != toSkip) {
-			return;
-		}
-
-		// we cannot assume we can freely mark and skip the original input stream,
-		// so we rather use a random access file, where we can jump and read anything anywhere.
-		try (RandomAccessFile fileInput = new RandomAccessFile(file, "r")) {
-			parseExifIFD(metadata, fileInput, fileOfs + 1, ifdOffset, ExifIfdType.STANDARD, byteOrder, filter);
-		}
-	}
-
-	private static void parseExifIFD(Map<ExifTag, Object> data, RandomAccessFile fileInput, long tiffHeaderOffset,
-		long ifdOffset, ExifIfdType ifdType, ExifByteOrder byteOrder, Collection<ExifTag> filter) throws IOException {
-
-		byte[] tagBuffer = new byte[4];
-
-		long saveFileOffset = fileInput.getFilePointer();
-		fileInput.seek(tiffHeaderOffset + ifdOffset);
-		int entryCount = read16bit(byteOrder, fileInput);
+		for (int entryIndex = 0; entryIndex < entryCount; entryIndex++, entryOffset += IFD_ENTRY_SIZE) {
+			if (entryOffset + IFD_ENTRY_SIZE > tiffData.limit()) {
+				break; // truncated IFD
+			}
 
-		for (int entryIndex = 0; entryIndex < entryCount; entryIndex++) {
-			int tagCode = read16bit(byteOrder, fileInput);
+			int tagCode = unsigned16bit(tiffData, entryOffset);
 			ExifTag tag = ExifTag.fromCode(ifdType, tagCode);
-			ExifFieldType fieldType = ExifFieldType.fromCode(read16bit(byteOrder, fileInput));
-			int length = (int) read32bit(byteOrder, fileInput);
+			ExifFieldType fieldType = ExifFieldType.fromCode(unsigned16bit(tiffData, entryOffset + 2));
+			int length = (int) unsigned32bit(tiffData, entryOffset + 4);
 			int valueLength = length * fieldType.size();
-
-			fileInput.read(tagBuffer, 0, 4);
-			long intValue = read32bit(byteOrder, tagBuffer, 0);
-			byte[] buffer = tagBuffer;
+			long intValue = unsigned32bit(tiffData, entryOffset + 8);
 
 			if ((filter != null) && !filter.isEmpty() && !filter.contains(tag) && !ExifTag.isIfdIndex(tag)) {
 				continue; // only process the data, if the tag is in the filter, or the tag is an IFD index
 			}
 
-			if ((tag == ExifTag.EXIF_OFFSET) || (tag == ExifTag.INTEROP_OFFSET)) {
-				parseExifIFD(data, fileInput, tiffHeaderOffset, intValue, ExifIfdType.STANDARD, byteOrder, filter);
+			if (ExifTag.isIfdIndex(tag) && !isValidIfdOffset(tiffData, intValue)) {
+				// corrupted sub-IFD, the tags read so far (e.g. the orientation in IFD0) are kept
+				Log.e(Constants.appNameInternal, "Invalid EXIF sub-IFD offset: " + intValue);
+			}
+			else if ((tag == ExifTag.EXIF_OFFSET) || (tag == ExifTag.INTEROP_OFFSET)) {
+				parseExifIFD(data, tiffData, intValue, ExifIfdType.STANDARD, byteOrder, filter);
 			}
 			else if (tag == ExifTag.EXIF_GPS) {
-				parseExifIFD(data, fileInput, tiffHeaderOffset, intValue, ExifIfdType.GPS, byteOrder, filter);
+				parseExifIFD(data, tiffData, intValue, ExifIfdType.GPS, byteOrder, filter);
 			}
 			else {
-				if (valueLength > 4) { // read indirect value somewhere else in the file
-					buffer = readBuffer(fileInput, tiffHeaderOffset + intValue, valueLength);
+				byte[] buffer;
+				if (valueLength > 4) { // indirect value somewhere else in the TIFF data
+					if ((intValue + valueLength > tiffData.limit()) || (valueLength < 0)) {
+						continue; // pointing outside of the segment, corrupted entry
+					}
+					buffer = readBuffer(tiffData, (int) intValue, valueLength);
+				}
+				else {
+					buffer = readBuffer(tiffData, entryOffset + 8, 4);
 				}
 
 				Object value = (tag == ExifTag.MAKER_NOTE)
@@ -165,8 +190,25 @@ public class ExifReader {
 				}
 			}
 		}
+	}
+
+	private static boolean isValidIfdOffset(ByteBuffer tiffData, long ifdOffset) {
+		return (ifdOffset >= 0) && (ifdOffset + 2 <= tiffData.limit());
+	}
 
-		fileInput.seek(saveFileOffset);
+	private static ExifByteOrder readByteOrder(byte[] tiffData) throws IOException {
+		if (tiffData.length < 8) {
+			throw new IOException("Invalid EXIF header");
+		}
+		ExifByteOrder byteOrder = ExifByteOrder.fromCode(read16bit(ExifByteOrder.UNKNOWN, tiffData, 0));
+		if (byteOrder == ExifByteOrder.UNKNOWN) {
+			throw new IOException("Invalid EXIF byte order");
+		}
+		int version = unsigned16bit(ByteBuffer.wrap(tiffData).order(byteOrder.getByteOrder()), 2);
+		if (version < 0x2a) {
+			throw new IOException("Invalid EXIF version");
+		}
+		return byteOrder;
 	}
 
 	private static Object decodeUndefinedValue(Object value) {
@@ -246,15 +288,20 @@ public class ExifReader {
 		}
 	}
 
-	private static byte[] readBuffer(RandomAccessFile fileInput, long offset, int valueLength) throws IOException {
-		long saveOffset = fileInput.getFilePointer();
-		fileInput.seek(offset);
+	private static byte[] readBuffer(ByteBuffer tiffData, int offset, int valueLength) {
 		byte[] buffer = new byte[valueLength];
-		fileInput.read(buffer);
-		fileInput.seek(saveOffset);
+		System.arraycopy(tiffData.array(), tiffData.arrayOffset() + offset, buffer, 0, valueLength);
 		return buffer;
 	}
 
+	private static int unsigned16bit(ByteBuffer tiffData, int offset) {
+		return tiffData.getShort(offset) & 0xFFFF;
+	}
+
+	private static long unsigned32bit(ByteBuffer tiffData, int offset) {
+		return tiffData.getInt(offset) & 0xFFFFFFFFL;
+	}
+
 	private static long read32bit(ExifByteOrder byteOrder, byte[] buffer, int ofs) {
 		return fix32bit(byteOrder,
 			(long) unsigned(buffer[ofs])
@@ -263,41 +310,10 @@ public class ExifReader {
 			+ ((long) unsigned(buffer[ofs + 3]) << 24));
 	}
 
-	private static long read32bit(ExifByteOrder byteOrder, InputStream is) throws IOException {
-		return fix32bit(byteOrder,
-			(long) is.read()
-			+ ((long) is.read() << 8)
-			+ ((long) is.read() << 16)
-			+ ((long) is.read() << 24));
-	}
-
-	private static long read32bit(ExifByteOrder byteOrder, DataInput input) throws IOException {
-		return fix32bit(byteOrder, read32bit(input));
-	}
-
-	private static long read32bit(DataInput input) throws IOException {
-		return (long) input.readUnsignedByte()
-			+ ((long) input.readUnsignedByte() << 8)
-			+ ((long) input.readUnsignedByte() << 16)
-			+ ((long) input.readUnsignedByte() << 24);
-	}
-
 	private static int read16bit(ExifByteOrder byteOrder, byte[] buffer, int ofs) {
 		return fix16bit(byteOrder, unsigned(buffer[ofs]) + (unsigned(buffer[ofs + 1]) << 8));
 	}
 
-	private static int read16bit(ExifByteOrder byteOrder, InputStream is) throws IOException {
-		return fix16bit(byteOrder, is.read() + (is.read() << 8));
-	}
-
-	private static int read16bit(ExifByteOrder byteOrder, DataInput input) throws IOException {
-		return fix16bit(byteOrder, read16bit(input));
-	}
-
-	private static int read16bit(DataInput input) throws IOException {
-		return input.readUnsignedByte() + (input.readUnsignedByte() << 8);
-	}
-
 	private static long fix32bit(ExifByteOrder byteOrder, long value) {
 		if (byteOrder == ExifByteOrder.MOTOROLA) {
 			return ((value & 0xFF) << 24)
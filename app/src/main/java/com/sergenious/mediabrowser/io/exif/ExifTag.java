@@ -53,6 +53,8 @@ public enum ExifTag {
     CODING_METHODS(ExifIfdType.STANDARD, 0x0193, R.string.coding_methods, null, null, ExifLabels.CODING_METHODS_LABEL_IDS, true),
     VERSION_YEAR(ExifIfdType.STANDARD, 0x0194, R.string.version_year, null, null, null),
     MODE_NUMBER(ExifIfdType.STANDARD, 0x0195, R.string.mode_number, null, null, null),
+    JPEG_INTERCHANGE_FORMAT(ExifIfdType.STANDARD, 0x0201, 0, null, null, null),
+    JPEG_INTERCHANGE_FORMAT_LENGTH(ExifIfdType.STANDARD, 0x0202, 0, null, null, null),
     Y_CB_CR_COEFFICIENTS(ExifIfdType.STANDARD, 0x0211, R.string.y_cb_cr_coefficients, null, null, null),
     Y_CB_CR_SUBSAMPLING(ExifIfdType.STANDARD, 0x0212, R.string.y_cb_cr_subsampling, null, null, null),
     Y_CB_CR_POSITIONING(ExifIfdType.STANDARD, 0x0213, R.string.y_cb_cr_positioning, null, null, ExifLabels.Y_CB_CR_POSITIONING_LABEL_IDS),
@@ -1,7 +1,5 @@
 package com.sergenious.mediabrowser.io.xmp;
 
-import com.sergenious.mediabrowser.io.JpegAppExtractor;
-
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -10,11 +8,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -24,27 +19,16 @@ public class XmpReader {
 	public static final String NS_RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
 	public static final String NS_GPANO = "http://ns.google.com/photos/1.0/panorama/";
 	
-	public static Document extract(File file) throws IOException {
-		List<Document> parsedDocuments = new ArrayList<>();
-
-		boolean isJpeg = JpegAppExtractor.extract(file, (appName, appFileOfs, appStream, appStreamSize) -> {
-			if (XmpReader.NS_XAP.equals(appName)) {
-				try {
-					String xmpData = JpegAppExtractor.readString(appStream, appStreamSize);
-					DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-					builderFactory.setNamespaceAware(true);
-					DocumentBuilder docBuilder = builderFactory.newDocumentBuilder();
-					parsedDocuments.add(docBuilder.parse(new InputSource(new StringReader(xmpData))));
-					return JpegAppExtractor.JpegAppReadState.READ_COMPLETED;
-				}
-				catch (Exception e) {
-					throw new IOException("Error parsing XMP", e);
-				}
-			}
-			return JpegAppExtractor.JpegAppReadState.UNREAD;
-		});
-
-		return (isJpeg && !parsedDocuments.isEmpty()) ? parsedDocuments.get(0) : null;
+	public static Document parse(String xmpData) throws IOException {
+		try {
+			DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+			builderFactory.setNamespaceAware(true);
+			DocumentBuilder docBuilder = builderFactory.newDocumentBuilder();
+			return docBuilder.parse(new InputSource(new StringReader(xmpData)));
+		}
+		catch (Exception e) {
+			throw new IOException("Error parsing XMP", e);
+		}
 	}
 
 	public static Element findRDF(Document xmpDoc) {
@@ -0,0 +1,93 @@
+package com.sergenious.mediabrowser.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+import android.util.Pair;
+import android.util.Size;
+
+import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.utils.MediaMetadata;
+import com.sergenious.mediabrowser.utils.MediaUtils;
+import com.sergenious.mediabrowser.utils.MetadataDatabase;
+
+import java.io.File;
+
+/** Process-wide cache of the decoded preview and full images of the media view, limited by the bitmap memory,
+ * so the images survive the swiping and the neighbours can be decoded before they are shown.
+ * The cached bitmaps are shared, so they must not be recycled. */
+public class DecodedImageCache {
+    private static final int MAX_MEMORY_FRACTION = 4; // of the maximum heap size
+
+    private static DecodedImageCache instance;
+
+    private final LruCache<String, Pair<Pair<Size, Integer>, Bitmap>> cache;
+
+    public static synchronized DecodedImageCache getInstance() {
+        if (instance == null) {
+            instance = new DecodedImageCache((int) (Runtime.getRuntime().maxMemory() / MAX_MEMORY_FRACTION));
+        }
+        return instance;
+    }
+
+    private DecodedImageCache(int maxBytes) {
+        cache = new LruCache<String, Pair<Pair<Size, Integer>, Bitmap>>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Pair<Pair<Size, Integer>, Bitmap> imageData) {
+                return imageData.second.getAllocationByteCount();
+            }
+        };
+    }
+
+    /** Returns the cached image, or null. */
+    public Pair<Pair<Size, Integer>, Bitmap> get(File file, boolean isFull) {
+        return cache.get(getKey(file, getMaxImageSize(isFull)));
+    }
+
+    /** Returns the cached image, or decodes and caches it. Returns null, if the image cannot be decoded. */
+    public Pair<Pair<Size, Integer>, Bitmap> load(Context context, File file, boolean isFull) {
+        int maxImageSize = getMaxImageSize(isFull);
+        String key = getKey(file, maxImageSize);
+        Pair<Pair<Size, Integer>, Bitmap> imageData = cache.get(key);
+        if (imageData != null) {
+            return imageData;
+        }
+
+        MediaMetadata metadata = MetadataDatabase.getInstance(context.getApplicationContext()).getMetadata(file);
+        imageData = (metadata != null)
+            ? MediaUtils.loadImage(file, metadata.getSizeAndOrientation(), maxImageSize, maxImageSize, isFull, false)
+            : MediaUtils.loadImage(file, maxImageSize, maxImageSize, isFull, false);
+        if ((imageData != null) && (imageData.second != null)) {
+            cache.put(key, imageData);
+            return imageData;
+        }
+        return null;
+    }
+
+    public boolean contains(Bitmap bitmap) {
+        for (Pair<Pair<Size, Integer>, Bitmap> imageData : cache.snapshot().values()) {
+            if (imageData.second == bitmap) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /** Keeps only the given fraction of the cache (0 = nothing). */
+    public void trimToFraction(float fraction) {
+        cache.trimToSize((int) (cache.maxSize() * fraction));
+    }
+
+    private static int getMaxImageSize(boolean isFull) {
+        return isFull ? Constants.MAX_IMAGE_SIZE : Constants.PREVIEW_IMAGE_SIZE;
+    }
+
+    /** The size and the modification time are part of the key, so the changed files are not found. */
+    private static String getKey(File file, int maxImageSize) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified() + ":" + maxImageSize;
+    }
+}
@@ -10,21 +10,31 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.RadioButton;
 
+import com.sergenious.mediabrowser.Constants;
 import com.sergenious.mediabrowser.R;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 @SuppressLint("ViewConstructor")
 public class HistogramView extends View {
     private static final int WAVEFORM_WIDTH = 256;
     private static final int HISTOGRAM_LINE_WIDTH = 2;
+    private static final int MAX_SAMPLED_PIXELS = 2 * 1024 * 1024;
 
     private HistogramDisplayMode displayMode = HistogramDisplayMode.HISTOGRAM;
     private float[][] histogram;
     private Bitmap waveformBitmap;
+    private volatile boolean canceled;
 
     private enum HistogramDisplayMode {
         HISTOGRAM,
@@ -57,13 +67,42 @@ public class HistogramView extends View {
         dialog.getWindow().setLayout(size, size);
     }
 
+    /** The histogram and the waveform are computed in the background, and shown when ready. */
     public HistogramView(Context context, Bitmap bitmap) {
         super(context);
-        if (bitmap != null) {
-            computeHistogramAndWaveform(bitmap);
+        Bitmap sampledBitmap = (bitmap != null) ? createSampledCopy(bitmap) : null;
+        if (sampledBitmap != null) {
+            // the shared pool, so the threads are not created for each opened view
+            ForkJoinPool.commonPool().execute(() -> computeHistogramAndWaveform(sampledBitmap));
+        }
+    }
+
+    /** The shown bitmap is not owned by this view, it can be pooled and decoded into, while still being read,
+     * so the computation reads its own copy, scaled down to about MAX_SAMPLED_PIXELS, which is plenty
+     * for the 256 value bins. */
+    private static Bitmap createSampledCopy(Bitmap bitmap) {
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            double scale = Math.sqrt((double) MAX_SAMPLED_PIXELS / ((double) width * height));
+            if (scale >= 1) {
+                return bitmap.copy(Bitmap.Config.ARGB_8888, false); // not scaled, createScaledBitmap would not copy
+            }
+            return Bitmap.createScaledBitmap(bitmap, Math.max(1, (int) (width * scale)),
+                Math.max(1, (int) (height * scale)), true);
+        }
+        catch (IllegalStateException | OutOfMemoryError e) { // recycled meanwhile, or too large
+            Log.e(Constants.appNameInternal, "Error copying bitmap for histogram", e);
+            return null;
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        canceled = true; // the dialog is closed
+    }
+
     public void setDisplayMode(HistogramDisplayMode displayMode) {
         this.displayMode = displayMode;
         invalidate();
@@ -104,55 +143,122 @@ public class HistogramView extends View {
         }
     }
 
+    /** Computes the histogram and the waveform in parallel, by the bands of the rows of the sampled copy,
+     * each with its own counters, which are summed at the end. */
     private void computeHistogramAndWaveform(Bitmap bitmap) {
-        histogram = new float[3][256]; // 3 color channels with 256 values each
-        float[][][] waveformData = new float[3][WAVEFORM_WIDTH][256];
-        waveformBitmap = Bitmap.createBitmap(WAVEFORM_WIDTH, 256, Bitmap.Config.ARGB_8888);
-
-        // count color values for each color channel
-        int[] pixels = new int[bitmap.getWidth()];
-        for (int y = 0; y < bitmap.getHeight(); y++) {
-            bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, y, bitmap.getWidth(), 1);
-
-            for (int x = 0; x < bitmap.getWidth(); x++) {
-                int pixel = pixels[x];
-                for (int channel = 0; channel < 3; channel++) {
-                    int waveformX = (x * WAVEFORM_WIDTH) / bitmap.getWidth();
-                    int value = (pixel >> (8 * channel)) & 255;
-                    waveformData[channel][waveformX][value]++;
-                    histogram[channel][value]++;
-                }
-            }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int bandCount = Math.max(1, Math.min(Math.max(2, Runtime.getRuntime().availableProcessors()), height));
+
+        // the waveform column of each source column, as the offset into the waveform counters
+        int[] waveformOffsets = new int[width];
+        for (int x = 0; x < width; x++) {
+            waveformOffsets[x] = ((x * WAVEFORM_WIDTH) / width) * 256;
+        }
+
+        List<RowBandTask> bandTasks = new ArrayList<>();
+        for (int band = 0; band < bandCount; band++) {
+            bandTasks.add(new RowBandTask(bitmap, band * height / bandCount, (band + 1) * height / bandCount,
+                waveformOffsets));
+        }
+        ForkJoinTask.invokeAll(bandTasks);
+        bitmap.recycle(); // the own copy
+        if (canceled) {
+            return;
+        }
+
+        RowBandTask result = bandTasks.get(0);
+        for (int band = 1; band < bandCount; band++) {
+            result.merge(bandTasks.get(band));
         }
 
         // normalization into [0..1] range
-        int totalPixels = bitmap.getWidth() * bitmap.getHeight();
+        float[][] histogram = new float[3][256];
+        float[][] waveformData = new float[3][WAVEFORM_WIDTH * 256];
         for (int channel = 0; channel < 3; channel++) {
-            float max = 0;
-            for (int i = 1; i < 255; i++) { // ignore edges
-                max = Math.max(max, histogram[channel][i]);
-            }
-            for (int i = 0; i < 256; i++) {
-                histogram[channel][i] = (max > 0) ? Math.min(1, histogram[channel][i] / max) : 0;
-            }
+            normalize(result.histogramCounts, channel * 256, histogram[channel], 0);
             for (int x = 0; x < WAVEFORM_WIDTH; x++) {
-                max = 0;
-                for (int i = 1; i < 255; i++) { // ignore edges
-                    max = Math.max(max, waveformData[channel][x][i]);
-                }
-                for (int i = 0; i < 256; i++) {
-                    waveformData[channel][x][i] = (max > 0) ? Math.min(1, waveformData[channel][x][i] / max) : 0;
-                }
+                normalize(result.waveformCounts, (channel * WAVEFORM_WIDTH + x) * 256, waveformData[channel], x * 256);
             }
         }
 
         // convert waveform to bitmap
+        int[] waveformPixels = new int[WAVEFORM_WIDTH * 256];
         for (int i = 0; i < 256; i++) {
             for (int x = 0; x < WAVEFORM_WIDTH; x++) {
-                int b = (int) (255 * waveformData[0][x][i]);
-                int g = (int) (255 * waveformData[1][x][i]);
-                int r = (int) (255 * waveformData[2][x][i]);
-                waveformBitmap.setPixel(x, 255 - i, 0xFF000000 | (r << 16) | (g << 8) | b);
+                int b = (int) (255 * waveformData[0][x * 256 + i]);
+                int g = (int) (255 * waveformData[1][x * 256 + i]);
+                int r = (int) (255 * waveformData[2][x * 256 + i]);
+                waveformPixels[(255 - i) * WAVEFORM_WIDTH + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        Bitmap waveformBitmap = Bitmap.createBitmap(WAVEFORM_WIDTH, 256, Bitmap.Config.ARGB_8888);
+        waveformBitmap.setPixels(waveformPixels, 0, WAVEFORM_WIDTH, 0, 0, WAVEFORM_WIDTH, 256);
+
+        post(() -> {
+            this.histogram = histogram;
+            this.waveformBitmap = waveformBitmap;
+            invalidate();
+        });
+    }
+
+    /** Scales the 256 counts from the offset into [0..1], by their maximum, without the edges. */
+    private static void normalize(int[] counts, int offset, float[] values, int valuesOffset) {
+        int max = 0;
+        for (int i = 1; i < 255; i++) { // ignore edges
+            max = Math.max(max, counts[offset + i]);
+        }
+        for (int i = 0; i < 256; i++) {
+            values[valuesOffset + i] = (max > 0) ? Math.min(1, (float) counts[offset + i] / max) : 0;
+        }
+    }
+
+    private class RowBandTask extends RecursiveAction {
+        private final Bitmap bitmap;
+        private final int fromRow;
+        private final int toRow;
+        private final int[] waveformOffsets;
+        final int[] histogramCounts = new int[3 * 256]; // by the channel, then the value
+        final int[] waveformCounts = new int[3 * WAVEFORM_WIDTH * 256]; // by the channel, the column, then the value
+
+        RowBandTask(Bitmap bitmap, int fromRow, int toRow, int[] waveformOffsets) {
+            this.bitmap = bitmap;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.waveformOffsets = waveformOffsets;
+        }
+
+        @Override
+        protected void compute() {
+            int width = bitmap.getWidth();
+            int[] pixels = new int[width];
+            int channelSize = WAVEFORM_WIDTH * 256;
+            for (int y = fromRow; (y < toRow) && !canceled; y++) {
+                bitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+
+                // the channels are unrolled, so the loop has no inner loop and no shifts by a variable
+                for (int x = 0; x < width; x++) {
+                    int pixel = pixels[x];
+                    int b = pixel & 255;
+                    int g = (pixel >> 8) & 255;
+                    int r = (pixel >> 16) & 255;
+                    int waveformOffset = waveformOffsets[x];
+                    histogramCounts[b]++;
+                    histogramCounts[256 + g]++;
+                    histogramCounts[512 + r]++;
+                    waveformCounts[waveformOffset + b]++;
+                    waveformCounts[channelSize + waveformOffset + g]++;
+                    waveformCounts[2 * channelSize + waveformOffset + r]++;
+                }
+            }
+        }
+
+        void merge(RowBandTask other) {
+            for (int i = 0; i < histogramCounts.length; i++) {
+                histogramCounts[i] += other.histogramCounts[i];
+            }
+            for (int i = 0; i < waveformCounts.length; i++) {
+                waveformCounts[i] += other.waveformCounts[i];
             }
         }
     }
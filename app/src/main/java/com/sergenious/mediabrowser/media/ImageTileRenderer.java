@@ -0,0 +1,212 @@
+package com.sergenious.mediabrowser.media;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.sergenious.mediabrowser.Constants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Draws the visible part of a large image in tiles, decoded by {@link BitmapRegionDecoder} at the sample size
+ * needed for the current zoom, so the image can be zoomed to the native resolution with a bounded memory.
+ * The coordinates are in the pixels of the stored (not rotated) image, the orientation is in the matrix. */
+public class ImageTileRenderer {
+    private static final int TILE_SIZE = 512;
+
+    private final BitmapRegionDecoder decoder;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int baseSampleSize;
+    private final Runnable onTileLoaded;
+    private final LruCache<Long, Bitmap> tileCache;
+    private final ExecutorService decodingExecutor = Executors.newSingleThreadExecutor();
+    private final Set<Long> pendingTiles = ConcurrentHashMap.newKeySet();
+    private volatile Set<Long> wantedTiles = Collections.emptySet();
+    private final Matrix imageMatrix = new Matrix();
+    private final Matrix tileMatrix = new Matrix();
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private int sampleSize;
+    private List<Long> visibleTiles = Collections.emptyList();
+    private volatile boolean isDestroyed;
+
+    /** Returns null, if the image format does not support the region decoding. */
+    @SuppressWarnings("deprecation")
+    public static ImageTileRenderer create(File file, int imageWidth, int imageHeight, int baseSampleSize,
+        Runnable onTileLoaded) {
+
+        try {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+            return new ImageTileRenderer(decoder, imageWidth, imageHeight, baseSampleSize, onTileLoaded);
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Cannot decode image regions " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private ImageTileRenderer(BitmapRegionDecoder decoder, int imageWidth, int imageHeight, int baseSampleSize,
+        Runnable onTileLoaded) {
+
+        this.decoder = decoder;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.baseSampleSize = baseSampleSize;
+        this.onTileLoaded = onTileLoaded;
+
+        int maxCacheBytes = (int) Math.min(Constants.MAX_IMAGE_TILES_MEMORY, Runtime.getRuntime().maxMemory() / 6);
+        tileCache = new LruCache<Long, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /** Picks the tile level for the matrix, which maps the image pixels to the view,
+     * and requests the decoding of the missing visible tiles. Returns false, if the base image is detailed enough. */
+    public boolean setViewport(Matrix matrix, int viewWidth, int viewHeight) {
+        imageMatrix.set(matrix);
+
+        float imagePixelsPerViewPixel = 1 / Math.max(matrix.mapRadius(1), 1e-6f);
+        sampleSize = 1;
+        while (sampleSize * 2 <= imagePixelsPerViewPixel) {
+            sampleSize *= 2;
+        }
+        if (sampleSize >= baseSampleSize) {
+            visibleTiles = Collections.emptyList();
+            wantedTiles = Collections.emptySet();
+            return false;
+        }
+
+        Matrix inverseMatrix = new Matrix();
+        if (!matrix.invert(inverseMatrix)) {
+            return false;
+        }
+        RectF visibleRect = new RectF(0, 0, viewWidth, viewHeight);
+        inverseMatrix.mapRect(visibleRect);
+        if (!visibleRect.intersect(0, 0, imageWidth, imageHeight)) {
+            visibleTiles = Collections.emptyList();
+            wantedTiles = Collections.emptySet();
+            return true;
+        }
+
+        int tileImageSize = TILE_SIZE * sampleSize;
+        int firstColumn = (int) (visibleRect.left / tileImageSize);
+        int lastColumn = (int) ((visibleRect.right - 1) / tileImageSize);
+        int firstRow = (int) (visibleRect.top / tileImageSize);
+        int lastRow = (int) ((visibleRect.bottom - 1) / tileImageSize);
+        float centerColumn = (firstColumn + lastColumn) / 2.0f;
+        float centerRow = (firstRow + lastRow) / 2.0f;
+
+        List<Long> tiles = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                tiles.add(getTileKey(sampleSize, column, row));
+            }
+        }
+        // the central tiles first
+        tiles.sort(Comparator.comparingDouble(key ->
+            Math.abs(getTileColumn(key) - centerColumn) + Math.abs(getTileRow(key) - centerRow)));
+
+        visibleTiles = tiles;
+        wantedTiles = new HashSet<>(tiles);
+        for (Long tileKey : tiles) {
+            if ((tileCache.get(tileKey) == null) && pendingTiles.add(tileKey)) {
+                decodingExecutor.execute(() -> decodeTile(tileKey));
+            }
+        }
+        return true;
+    }
+
+    /** Draws the decoded visible tiles, the missing ones are left to the base image below them. */
+    public void draw(Canvas canvas) {
+        for (Long tileKey : visibleTiles) {
+            Bitmap tile = tileCache.get(tileKey);
+            if (tile != null) {
+                Rect tileRect = getTileRect(tileKey);
+                tileMatrix.setScale((float) tileRect.width() / tile.getWidth(), (float) tileRect.height() / tile.getHeight());
+                tileMatrix.postTranslate(tileRect.left, tileRect.top);
+                tileMatrix.postConcat(imageMatrix);
+                canvas.drawBitmap(tile, tileMatrix, tilePaint);
+            }
+        }
+    }
+
+    public void destroy() {
+        isDestroyed = true;
+        decodingExecutor.shutdownNow();
+        wantedTiles = Collections.emptySet();
+        visibleTiles = Collections.emptyList();
+        tileCache.evictAll();
+        decoder.recycle(); // a decoding, which is still running, fails and is ignored
+    }
+
+    private void decodeTile(long tileKey) {
+        try {
+            if (isDestroyed || !wantedTiles.contains(tileKey)) {
+                return; // scrolled or zoomed away meanwhile
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = getTileSampleSize(tileKey);
+            Bitmap tile = decoder.decodeRegion(getTileRect(tileKey), options);
+            if ((tile != null) && !isDestroyed) {
+                tileCache.put(tileKey, tile);
+                onTileLoaded.run();
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error decoding image tile", e);
+        }
+        finally {
+            pendingTiles.remove(tileKey);
+        }
+    }
+
+    private Rect getTileRect(long tileKey) {
+        int tileImageSize = TILE_SIZE * getTileSampleSize(tileKey);
+        int left = getTileColumn(tileKey) * tileImageSize;
+        int top = getTileRow(tileKey) * tileImageSize;
+        return new Rect(left, top, Math.min(imageWidth, left + tileImageSize), Math.min(imageHeight, top + tileImageSize));
+    }
+
+    private static long getTileKey(int sampleSize, int column, int row) {
+        return ((long) sampleSize << 40) | ((long) column << 20) | row;
+    }
+
+    private static int getTileSampleSize(long tileKey) {
+        return (int) (tileKey >> 40);
+    }
+
+    private static int getTileColumn(long tileKey) {
+        return (int) ((tileKey >> 20) & 0xFFFFF);
+    }
+
+    private static int getTileRow(long tileKey) {
+        return (int) (tileKey & 0xFFFFF);
+    }
+}
@@ -3,6 +3,7 @@ package com.sergenious.mediabrowser.media;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.os.Handler;
@@ -13,9 +14,16 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.utils.BitmapPool;
+import com.sergenious.mediabrowser.utils.ImageDecodingExecutor;
+import com.sergenious.mediabrowser.utils.MediaMetadata;
 import com.sergenious.mediabrowser.utils.MediaUtils;
+import com.sergenious.mediabrowser.utils.MetadataDatabase;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 @SuppressLint("ViewConstructor")
 public class MediaImageView extends ImageView implements AbstractMediaView {
@@ -27,6 +35,10 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
     private final Handler handler = new Handler();
     private Size imageDimensions = new Size(0, 0);
     private Runnable fullImageLoader;
+    private final List<Future<?>> loadingTasks = new ArrayList<>();
+    private boolean isCurrent;
+    private ImageTileRenderer tileRenderer;
+    private volatile boolean isDestroyed;
     private boolean isTransientTimer;
     private float scale;
     private float ofsX;
@@ -44,6 +56,7 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
         this.rootLayout = rootLayout;
         this.file = file;
         this.matrix = new Matrix();
+        this.isCurrent = !previewOnly;
 
         setScaleType(ImageView.ScaleType.MATRIX);
         setImageMatrix(matrix);
@@ -61,6 +74,9 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
 
     @Override
     public void destroy() {
+        isDestroyed = true;
+        cancelLoading();
+        setTileRenderer(null);
         setImageBitmap(null);
     }
 
@@ -71,11 +87,13 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
 
     @Override
     public void setImageBitmap(Bitmap bitmap) {
+        Bitmap prevBitmap = currentBitmap;
         super.setImageBitmap(bitmap);
-        if (currentBitmap != null) {
-            currentBitmap.recycle();
-        }
         currentBitmap = bitmap;
+        // the cached bitmaps are shared, the evicted ones are not used anywhere else anymore
+        if ((prevBitmap != null) && (prevBitmap != bitmap) && !DecodedImageCache.getInstance().contains(prevBitmap)) {
+            BitmapPool.getInstance().put(prevBitmap);
+        }
     }
 
     @Override
@@ -92,6 +110,7 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
 
     @Override
     public void loadFully() {
+       isCurrent = true;
        fullImageLoader = () -> {
            if (isAttachedToWindow()) {
                loadImage(true);
@@ -175,6 +194,14 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
         isTransientTimer = true;
     }
 
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (tileRenderer != null) {
+            tileRenderer.draw(canvas); // the details over the (subsampled) image
+        }
+    }
+
     /*@Override
     protected void onDraw(Canvas canvas) {
         if (currentBitmap != null) {
@@ -189,30 +216,70 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
             handler.removeCallbacks(fullImageLoader);
             fullImageLoader = null;
         }
+        cancelLoading();
+    }
+
+    private void cancelLoading() {
+        for (Future<?> loadingTask : loadingTasks) {
+            ImageDecodingExecutor.getInstance().cancel(loadingTask);
+        }
+        loadingTasks.clear();
     }
 
     private void loadImage(boolean isFull) {
-        new Thread(() -> {
-            int maxImageSize = isFull ? Constants.MAX_IMAGE_SIZE : Constants.PREVIEW_IMAGE_SIZE;
-            final Pair<Pair<Size, Integer>, Bitmap> imageData = MediaUtils.loadImage(file, maxImageSize, maxImageSize, isFull, false);
-            if ((imageData != null) && (imageData.second != null)) {
+        // the prefetched (or previously shown) image is displayed at once, without an empty frame
+        Pair<Pair<Size, Integer>, Bitmap> cachedImageData = !isFull ? DecodedImageCache.getInstance().get(file, false) : null;
+        if (cachedImageData != null) {
+            imageExifOrientation = cachedImageData.first.second;
+            setImageData(cachedImageData, false, null);
+            return;
+        }
+
+        // the shown image goes before the neighbours
+        ImageDecodingExecutor.Priority priority = (isFull || isCurrent)
+            ? ImageDecodingExecutor.Priority.CURRENT : ImageDecodingExecutor.Priority.NEIGHBOUR;
+        loadingTasks.add(ImageDecodingExecutor.getInstance().submit(priority, () -> {
+            Context appContext = getContext().getApplicationContext();
+            final Pair<Pair<Size, Integer>, Bitmap> imageData = DecodedImageCache.getInstance().load(appContext, file, isFull);
+            if ((imageData != null) && !isDestroyed) {
                 imageExifOrientation = imageData.first.second;
 
-                handler.post(() -> {
-                    if (isFull) {
-                        isFullyLoaded = true;
-                    }
-                    Size prevDimensions = imageDimensions;
-                    imageDimensions = new Size(imageData.second.getWidth(), imageData.second.getHeight());
-                    imageDimensions = MediaUtils.fixImageSizeByExifOrientation(imageDimensions, imageExifOrientation);
-                    if ((prevDimensions != null) && (prevDimensions.getWidth() > 0)) {
-                        scale *= (float) prevDimensions.getWidth() / imageDimensions.getWidth();
-                    }
-                    updateMatrix();
-                    setImageBitmap(imageData.second);
-                });
+                // the full image was subsampled, so the details are decoded in tiles, when zoomed in
+                ImageTileRenderer newTileRenderer = null;
+                MediaMetadata metadata = isFull ? MetadataDatabase.getInstance(appContext).getMetadata(file) : null;
+                if ((metadata != null) && (metadata.width > imageData.second.getWidth())) {
+                    newTileRenderer = ImageTileRenderer.create(file, metadata.width, metadata.height,
+                        Math.round((float) metadata.width / imageData.second.getWidth()), () -> postInvalidate());
+                }
+                final ImageTileRenderer newTileRendererFinal = newTileRenderer;
+
+                handler.post(() -> setImageData(imageData, isFull, newTileRendererFinal));
             }
-        }, "ImageLoadingThread").start();
+        }));
+    }
+
+    private void setImageData(Pair<Pair<Size, Integer>, Bitmap> imageData, boolean isFull,
+        ImageTileRenderer newTileRenderer) {
+
+        if (isFull) {
+            isFullyLoaded = true;
+        }
+        Size prevDimensions = imageDimensions;
+        imageDimensions = new Size(imageData.second.getWidth(), imageData.second.getHeight());
+        imageDimensions = MediaUtils.fixImageSizeByExifOrientation(imageDimensions, imageExifOrientation);
+        if ((prevDimensions != null) && (prevDimensions.getWidth() > 0)) {
+            scale *= (float) prevDimensions.getWidth() / imageDimensions.getWidth();
+        }
+        if (newTileRenderer != null) {
+            if (!isDestroyed) {
+                setTileRenderer(newTileRenderer);
+            }
+            else {
+                newTileRenderer.destroy();
+            }
+        }
+        updateMatrix();
+        setImageBitmap(imageData.second);
     }
 
     public void zoomInNative(float clickX, float clickY) {
@@ -258,6 +325,22 @@ public class MediaImageView extends ImageView implements AbstractMediaView {
         matrix.postScale(scale, scale);
         matrix.postTranslate(ofsX + globalOfsX, ofsY);
         setImageMatrix(matrix);
+
+        if ((tileRenderer != null) && (imageDimensions.getWidth() > 0)) {
+            // the tiles are in the pixels of the whole image, which is larger than the loaded one
+            Size bitmapSize = MediaUtils.fixImageSizeByExifOrientation(imageDimensions, imageExifOrientation);
+            Matrix tilesMatrix = new Matrix(matrix);
+            tilesMatrix.preScale((float) bitmapSize.getWidth() / tileRenderer.getImageWidth(),
+                (float) bitmapSize.getHeight() / tileRenderer.getImageHeight());
+            tileRenderer.setViewport(tilesMatrix, getWidth(), getHeight());
+        }
+    }
+
+    private void setTileRenderer(ImageTileRenderer newTileRenderer) {
+        if (tileRenderer != null) {
+            tileRenderer.destroy();
+        }
+        tileRenderer = newTileRenderer;
     }
 
     private RectF getOffsetBounds() {
@@ -20,9 +20,11 @@ import com.sergenious.mediabrowser.pano.mesh.AbstractVertexMesh;
 import com.sergenious.mediabrowser.pano.mesh.SphereMesh;
 import com.sergenious.mediabrowser.pano.shader.ShaderList;
 import com.sergenious.mediabrowser.ui.DialogUtils;
+import com.sergenious.mediabrowser.utils.ImageDecodingExecutor;
 import com.sergenious.mediabrowser.utils.MediaUtils;
 
 import java.io.File;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -33,6 +35,7 @@ public class PanoramicRenderer implements GLSurfaceView.Renderer {
 
 	private final Context ctx;
 	private final Runnable requestRenderFunc;
+	private final Consumer<Runnable> glThreadRunner;
 	private final Consumer<PointF> onClickListener;
 	private Camera camera;
 	private ShaderList shaderList;
@@ -41,13 +44,18 @@ public class PanoramicRenderer implements GLSurfaceView.Renderer {
 	private boolean hasGlContext = false;
 	private SphereMesh sphereMesh;
 	private File imageFile = null;
+	private Future<?> imageLoadingTask = null;
 	private int deviceOrientation = 0;
 	private float[] rotationMatrix = null;
 	private boolean isLinearMode = false;
 	
-	public PanoramicRenderer(Context ctx, Runnable requestRenderFunc, Consumer<PointF> onClickListener) {
+	/** The image is decoded in the background, then the glThreadRunner uploads it in the GL thread. */
+	public PanoramicRenderer(Context ctx, Runnable requestRenderFunc, Consumer<Runnable> glThreadRunner,
+		Consumer<PointF> onClickListener) {
+
 		this.ctx = ctx;
 		this.requestRenderFunc = requestRenderFunc;
+		this.glThreadRunner = glThreadRunner;
 		this.onClickListener = onClickListener;
 	}
 
@@ -130,6 +138,9 @@ public class PanoramicRenderer implements GLSurfaceView.Renderer {
 	}
 
 	public void destroy() {
+		ImageDecodingExecutor.getInstance().cancel(imageLoadingTask);
+		imageLoadingTask = null;
+
 		try {
 			if (sphereMesh != null) {
 				sphereMesh.destroy();
@@ -167,24 +178,33 @@ public class PanoramicRenderer implements GLSurfaceView.Renderer {
 			this.imageFile = file;
 		}
 		else {
-			try {
-				int maxTextureSize = getMaxTextureSize();
-				Pair<RectF, Bitmap> imageData = MediaUtils.loadImageWithPano(ctx,
-					file, maxTextureSize, maxTextureSize, false, false);
-
-				if (imageData != null) {
-					setImage(imageData.second, imageData.first);
+			int maxTextureSize = getMaxTextureSize(); // in the GL thread
+
+			ImageDecodingExecutor.getInstance().cancel(imageLoadingTask);
+			imageLoadingTask = ImageDecodingExecutor.getInstance().submit(ImageDecodingExecutor.Priority.CURRENT, () -> {
+				try {
+					Pair<RectF, Bitmap> imageData = MediaUtils.loadImageWithPano(ctx,
+						file, maxTextureSize, maxTextureSize, false, false);
+
+					if (imageData != null) {
+						glThreadRunner.accept(() -> {
+							if (shaderList != null) { // not destroyed meanwhile
+								setImage(imageData.second, imageData.first);
+								requestRenderFunc.run();
+							}
+						});
+					}
+					else {
+						DialogUtils.showErrorDialog(ctx, ctx.getString(R.string.error),
+							ctx.getString(R.string.error_loading_image), null);
+					}
 				}
-				else {
+				catch (Throwable e) {
+					Log.e(Constants.appNameInternal, "Error loading image", e);
 					DialogUtils.showErrorDialog(ctx, ctx.getString(R.string.error),
-						ctx.getString(R.string.error_loading_image), null);
+						ctx.getString(R.string.error_loading_image) + ":\n" + e.getMessage(), null);
 				}
-			}
-			catch (Throwable e) {
-				Log.e(Constants.appNameInternal, "Error loading image", e);
-				DialogUtils.showErrorDialog(ctx, ctx.getString(R.string.error),
-					ctx.getString(R.string.error_loading_image) + ":\n" + e.getMessage(), null);
-			}
+			});
 		}
 	}
 	
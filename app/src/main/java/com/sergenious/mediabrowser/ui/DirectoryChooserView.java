@@ -112,9 +112,19 @@ public class DirectoryChooserView extends FrameLayout {
         }
     }
 
+    private static class DirectoryRowHolder {
+        final TextView nameView;
+        final ImageView iconView;
+
+        DirectoryRowHolder(View row) {
+            nameView = row.findViewById(R.id.directoryName);
+            iconView = row.findViewById(R.id.directoryIcon);
+        }
+    }
+
     private class DirectoriesGridAdapter extends GridAdapter<FileInfo> {
         public DirectoriesGridAdapter(Collection<FileInfo> directoryList) {
-            super(directoryList);
+            super(directoryList, true);
         }
 
         @Override
@@ -122,10 +132,16 @@ public class DirectoryChooserView extends FrameLayout {
             return inflater.inflate(R.layout.directory_chooser_item, gridView, false);
         }
 
+        @Override
+        protected Object createRowHolder(View row) {
+            return new DirectoryRowHolder(row);
+        }
+
         @Override
         protected void prepareRow(int position, View row, FileInfo fileInfo) {
-            ((TextView) row.findViewById(R.id.directoryName)).setText(fileInfo.name);
-            ((ImageView) row.findViewById(R.id.directoryIcon)).setImageResource(fileInfo.iconResId);
+            DirectoryRowHolder rowHolder = (DirectoryRowHolder) row.getTag();
+            rowHolder.nameView.setText(fileInfo.name);
+            rowHolder.iconView.setImageResource(fileInfo.iconResId);
         }
     }
 }
@@ -5,24 +5,72 @@ import java.util.*;
 import android.view.*;
 import android.widget.BaseAdapter;
 
+/** By default, each row view is created once and kept for its item. In the recycling mode, the row views
+ * are reused for other items while scrolling, so only a screen of them exists, and each row gets a holder
+ * (in the view tag) for its child views, created once by {@link #createRowHolder}. */
 public abstract class GridAdapter<T> extends BaseAdapter {
     private final List<RowData> gridRowList;
+    private final boolean isRecyclingRows;
+    private long nextRowId;
 
     private class RowData {
         public View rowView;
         public T rowObject;
+        public long rowId; // kept, when the rows are inserted before it
     }
     
     public GridAdapter(Collection<T> gridRowObjectList) {
-        gridRowList = (gridRowObjectList != null) ? new ArrayList<>(gridRowObjectList.size()) : null;
+        this(gridRowObjectList, false);
+    }
+
+    public GridAdapter(Collection<T> gridRowObjectList, boolean isRecyclingRows) {
+        this.isRecyclingRows = isRecyclingRows;
+        gridRowList = (gridRowObjectList != null) ? new ArrayList<>(gridRowObjectList.size()) : new ArrayList<>();
         if (gridRowObjectList != null) {
             for (T rowObject: gridRowObjectList) {
-                RowData rowData = new RowData();
-                rowData.rowObject = rowObject;
-                rowData.rowView = null;
-                gridRowList.add(rowData);
+                gridRowList.add(createRowData(rowObject));
+            }
+        }
+    }
+
+    /** Appends the items, or merges them into the items, which are already sorted by the comparator (if not null),
+     * so the items can be added in batches, while they are being loaded. */
+    public void addItems(Collection<T> rowObjects, Comparator<? super T> comparator) {
+        if (comparator == null) {
+            for (T rowObject: rowObjects) {
+                gridRowList.add(createRowData(rowObject));
+            }
+        }
+        else {
+            List<T> sortedRowObjects = new ArrayList<>(rowObjects);
+            sortedRowObjects.sort(comparator);
+
+            List<RowData> mergedRowList = new ArrayList<>(gridRowList.size() + sortedRowObjects.size());
+            int rowIndex = 0;
+            for (T rowObject: sortedRowObjects) {
+                while ((rowIndex < gridRowList.size())
+                    && (comparator.compare(gridRowList.get(rowIndex).rowObject, rowObject) <= 0)) {
+
+                    mergedRowList.add(gridRowList.get(rowIndex++));
+                }
+                mergedRowList.add(createRowData(rowObject));
             }
+            while (rowIndex < gridRowList.size()) {
+                mergedRowList.add(gridRowList.get(rowIndex++));
+            }
+
+            gridRowList.clear();
+            gridRowList.addAll(mergedRowList);
         }
+        notifyDataSetChanged();
+    }
+
+    private RowData createRowData(T rowObject) {
+        RowData rowData = new RowData();
+        rowData.rowObject = rowObject;
+        rowData.rowView = null;
+        rowData.rowId = nextRowId++;
+        return rowData;
     }
 
     public void invalidate() {
@@ -33,6 +81,19 @@ public abstract class GridAdapter<T> extends BaseAdapter {
 
     @Override
 	public View getView(final int position, View convertView, final ViewGroup parent) {
+        if (isRecyclingRows) {
+            View row = convertView;
+            if (row == null) {
+                row = createRow();
+                if (row == null) {
+                    return null;
+                }
+                row.setTag(createRowHolder(row));
+            }
+            prepareRow(position, row, getItem(position)); // binds the (possibly reused) row to the item
+            return row;
+        }
+
         View row = gridRowList.get(position).rowView;
         if (row == null) {
             row = createRow();
@@ -64,7 +125,10 @@ public abstract class GridAdapter<T> extends BaseAdapter {
 
     @Override
 	public long getItemId(int position) {
-        return position;
+        if ((position < 0) || (position >= gridRowList.size())) {
+            return position;
+        }
+        return gridRowList.get(position).rowId;
     }
     
     @Override
@@ -82,6 +146,11 @@ public abstract class GridAdapter<T> extends BaseAdapter {
         return true;
     }
 
+    // overridable, only used in the recycling mode
+    protected Object createRowHolder(View row) {
+        return null;
+    }
+
     protected abstract View createRow();
     protected abstract void prepareRow(int position, View row, T rowObject);
 }
@@ -0,0 +1,103 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Process-wide pool of the no longer used mutable bitmaps, bucketed by their allocation size,
+ * so the decoding can reuse their memory via {@link BitmapFactory.Options#inBitmap}, instead of allocating again.
+ * Only the bitmaps, which are not referenced anywhere else, can be put into the pool. */
+public class BitmapPool {
+    private static final int MAX_MEMORY_FRACTION = 8; // of the maximum heap size
+    private static final int MAX_SIZE_WASTE_FACTOR = 2; // a pooled bitmap is not used for a much smaller image
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    private final TreeMap<Integer, Deque<Bitmap>> buckets = new TreeMap<>(); // by the allocation byte count
+    private long totalBytes;
+    private int hitCount;
+    private int missCount;
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / MAX_MEMORY_FRACTION);
+        }
+        return instance;
+    }
+
+    private BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Sets the options for decoding into a pooled bitmap, if there is one large enough for the decoded size.
+     * If the decoding into it fails, {@link #decodeFailed} is to be called. */
+    public void prepareOptions(BitmapFactory.Options options, int decodedWidth, int decodedHeight) {
+        options.inMutable = true; // so the bitmap can be pooled later
+        options.inBitmap = get(decodedWidth * decodedHeight * 4); // ARGB_8888
+    }
+
+    /** Returns the pooled bitmap back and clears it in the options, so the decoding can be repeated without it. */
+    public void decodeFailed(BitmapFactory.Options options) {
+        if (options.inBitmap != null) {
+            put(options.inBitmap);
+            options.inBitmap = null;
+        }
+    }
+
+    /** Returns null, if there is no pooled bitmap of the given allocation size. */
+    public synchronized Bitmap get(int byteCount) {
+        Map.Entry<Integer, Deque<Bitmap>> bucket = buckets.ceilingEntry(byteCount);
+        if ((bucket == null) || (bucket.getKey() > MAX_SIZE_WASTE_FACTOR * (long) byteCount)) {
+            missCount++;
+            return null;
+        }
+
+        Bitmap bitmap = bucket.getValue().poll();
+        if (bucket.getValue().isEmpty()) {
+            buckets.remove(bucket.getKey());
+        }
+        totalBytes -= bucket.getKey();
+        hitCount++;
+        return bitmap;
+    }
+
+    /** The bitmap must not be used by the caller anymore. Accepts null. */
+    public synchronized void put(Bitmap bitmap) {
+        if ((bitmap == null) || bitmap.isRecycled()) {
+            return;
+        }
+        int byteCount = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || (bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+            || (totalBytes + byteCount > maxBytes)) {
+
+            bitmap.recycle(); // cannot be reused
+            return;
+        }
+
+        buckets.computeIfAbsent(byteCount, key -> new ArrayDeque<>()).add(bitmap);
+        totalBytes += byteCount;
+    }
+
+    public synchronized void clear() {
+        for (Deque<Bitmap> bucket : buckets.values()) {
+            for (Bitmap bitmap : bucket) {
+                bitmap.recycle();
+            }
+        }
+        buckets.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+}
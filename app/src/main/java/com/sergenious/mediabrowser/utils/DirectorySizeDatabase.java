@@ -0,0 +1,203 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.sergenious.mediabrowser.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Cache of the directory listings with the file sizes, for the file sizes view, so only the directories,
+ * whose modification time changed, need to be listed again. The changes of the file contents do not change
+ * the modification time of their directory, so the sizes of the files changed in place are not updated. */
+public class DirectorySizeDatabase extends SQLiteOpenHelper {
+    private static final String DB_NAME = "dirsizes";
+    private static final String DIR_PATH = "path";
+    private static final String PARENT_PATH = "parent";
+    private static final String DIR_TIME = "mtime";
+    private static final String CHUNK = "chunk";
+    private static final String ENTRIES = "entries";
+    // the entries of a directory are split into the rows of up to about this size, as a row must fit
+    // into the cursor window (2 MB), which a single blob of a directory with tens of thousands of files would not
+    private static final int MAX_CHUNK_BYTES = 256 * 1024;
+
+    private static DirectorySizeDatabase instance;
+
+    private final SQLiteDatabase db;
+
+    public static class DirectoryEntry {
+        public final String name;
+        public final boolean isDirectory;
+        public final long size; // 0 for the directories
+        public final long time; // ms, the last modification
+
+        public DirectoryEntry(String name, boolean isDirectory, long size, long time) {
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    public static class DirectoryListing {
+        public final File dir;
+        public final long dirTime;
+        public final List<DirectoryEntry> entries;
+
+        public DirectoryListing(File dir, long dirTime, List<DirectoryEntry> entries) {
+            this.dir = dir;
+            this.dirTime = dirTime;
+            this.entries = entries;
+        }
+    }
+
+    public static synchronized DirectorySizeDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new DirectorySizeDatabase(context);
+        }
+        return instance;
+    }
+
+    private DirectorySizeDatabase(Context context) {
+        super(context, DB_NAME, null, 3);
+        setWriteAheadLoggingEnabled(true);
+        db = getWritableDatabase();
+    }
+
+    /** Returns the cached entries, or null, if not cached or the directory changed since. */
+    public List<DirectoryEntry> getEntries(File dir, long dirTime) {
+        try (Cursor cursor = db.query(DB_NAME, new String[] {ENTRIES}, DIR_PATH + "=? AND " + DIR_TIME + "=?",
+            new String[] {dir.getAbsolutePath(), Long.toString(dirTime)}, null, null, CHUNK)) {
+
+            List<DirectoryEntry> entries = null;
+            while (cursor.moveToNext()) {
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                }
+                decodeEntries(cursor.getBlob(0), entries);
+            }
+            return entries;
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+        return null;
+    }
+
+    /** Saves the listings in a single transaction. The cached listings of the subdirectories,
+     * which are not in the new listings anymore, are removed with their subtrees. */
+    public void saveListings(Collection<DirectoryListing> listings) {
+        db.beginTransaction();
+        try {
+            for (DirectoryListing listing : listings) {
+                String dirPath = listing.dir.getAbsolutePath();
+                Set<String> subdirPaths = new HashSet<>();
+                for (DirectoryEntry entry : listing.entries) {
+                    if (entry.isDirectory) {
+                        subdirPaths.add(new File(listing.dir, entry.name).getAbsolutePath());
+                    }
+                }
+                for (String cachedSubdirPath : getCachedSubdirectoryPaths(dirPath)) {
+                    if (!subdirPaths.contains(cachedSubdirPath)) {
+                        db.delete(DB_NAME, DIR_PATH + "=? OR (" + DIR_PATH + ">? AND " + DIR_PATH + "<?)",
+                            new String[] {cachedSubdirPath, cachedSubdirPath + "/", cachedSubdirPath + "0"});
+                    }
+                }
+
+                // the previous listing could have more chunks
+                db.delete(DB_NAME, DIR_PATH + "=?", new String[] {dirPath});
+                File parentDir = listing.dir.getParentFile();
+                List<byte[]> chunks = encodeEntries(listing.entries);
+                for (int chunk = 0; chunk < chunks.size(); chunk++) {
+                    ContentValues contentValue = new ContentValues();
+                    contentValue.put(DIR_PATH, dirPath);
+                    contentValue.put(CHUNK, chunk);
+                    contentValue.put(PARENT_PATH, (parentDir != null) ? parentDir.getAbsolutePath() : "");
+                    contentValue.put(DIR_TIME, listing.dirTime);
+                    contentValue.put(ENTRIES, chunks.get(chunk));
+                    db.insert(DB_NAME, null, contentValue);
+                }
+            }
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    private List<String> getCachedSubdirectoryPaths(String dirPath) {
+        List<String> subdirPaths = new ArrayList<>();
+        try (Cursor cursor = db.query(DB_NAME, new String[] {DIR_PATH}, PARENT_PATH + "=? AND " + CHUNK + "=0",
+            new String[] {dirPath}, null, null, null)) {
+
+            while (cursor.moveToNext()) {
+                subdirPaths.add(cursor.getString(0));
+            }
+        }
+        return subdirPaths;
+    }
+
+    /** Returns at least one chunk (empty for an empty directory), so the empty directories are cached too. */
+    private static List<byte[]> encodeEntries(List<DirectoryEntry> entries) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (DirectoryEntry entry : entries) {
+            out.writeUTF(entry.name);
+            out.writeBoolean(entry.isDirectory);
+            out.writeLong(entry.size);
+            out.writeLong(entry.time);
+            if (bytes.size() >= MAX_CHUNK_BYTES) {
+                chunks.add(bytes.toByteArray());
+                bytes.reset();
+            }
+        }
+        if ((bytes.size() > 0) || chunks.isEmpty()) {
+            chunks.add(bytes.toByteArray());
+        }
+        return chunks;
+    }
+
+    private static void decodeEntries(byte[] data, List<DirectoryEntry> entries) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            while (in.available() > 0) {
+                entries.add(new DirectoryEntry(in.readUTF(), in.readBoolean(), in.readLong(), in.readLong()));
+            }
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("create table " + DB_NAME + "(" + DIR_PATH + " TEXT NOT NULL, " + CHUNK + " int NOT NULL, "
+            + PARENT_PATH + " TEXT NOT NULL, " + DIR_TIME + " int NOT NULL, " + ENTRIES + " BLOB NOT NULL, "
+            + "PRIMARY KEY (" + DIR_PATH + ", " + CHUNK + "));");
+        db.execSQL("create index " + DB_NAME + "_" + PARENT_PATH + " on " + DB_NAME + "(" + PARENT_PATH + ");");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            // the cached listings are without the modification times (v1) or in a single blob (v2),
+            // so they are listed again
+            db.execSQL("drop table if exists " + DB_NAME + ";");
+            onCreate(db);
+        }
+    }
+}
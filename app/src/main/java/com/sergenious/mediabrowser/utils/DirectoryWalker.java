@@ -0,0 +1,162 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.sergenious.mediabrowser.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/** Walks a directory tree in parallel on a {@link ForkJoinPool}, each subdirectory is a separate task.
+ * The entries are read by the directory streams with their attributes, so each entry is stat-ed only once.
+ * The entries are passed to the visitor as soon as they are read, so the results can be streamed. */
+public class DirectoryWalker<N> {
+    private static final double PROGRESS_RESOLUTION = 1e9; // the progress is summed as the fixed point numbers
+
+    /** The methods are called from the walking threads: the entries of one directory sequentially,
+     * but the different directories concurrently. */
+    public interface Visitor<N> {
+        /** Returns the node of the entry, which is the parent node of its entries, if it is a directory,
+         * or null, if the directory is not to be walked. The root directory is not visited. */
+        N visitEntry(N parentNode, File file, BasicFileAttributes attributes, int depth);
+
+        /** Called for each directory before its entries are listed, so the visitor can take the entries from elsewhere
+         * (e.g. a cache), and visit them together. Returns all the entries, the subdirectories to be walked with
+         * their files and nodes, the others with the null node (and possibly the null file), or null, if the directory
+         * is to be listed, and its entries visited by {@link #visitEntry}. */
+        default List<Pair<File, N>> visitDirectory(N directoryNode, File directory, int depth) {
+            return null;
+        }
+
+        /** Called, when all the entries of the directory and its subdirectories are visited. */
+        default void directoryWalked(N directoryNode) {
+        }
+    }
+
+    private final Visitor<N> visitor;
+    private final BiConsumer<String, Double> progressUpdater;
+    private final Supplier<Boolean> canceled;
+    private final double progressStart;
+    private final double progressFactor;
+    private final AtomicLong progressDone = new AtomicLong();
+    private final ProgressThrottle progressThrottle = new ProgressThrottle();
+    private String rootPath;
+
+    /** The progress is reported from progressStart to progressStart + progressFactor,
+     * by the shares of the directory entries, as the subdirectories are finished. */
+    public DirectoryWalker(Visitor<N> visitor, BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled,
+        double progressStart, double progressFactor) {
+
+        this.visitor = visitor;
+        this.progressUpdater = progressUpdater;
+        this.canceled = canceled;
+        this.progressStart = progressStart;
+        this.progressFactor = progressFactor;
+    }
+
+    /** Returns, when the whole tree is walked, or the walking is canceled. */
+    public void walk(File rootDir, N rootNode) {
+        rootPath = rootDir.getAbsolutePath();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.invoke(new DirectoryTask(rootDir.toPath(), rootNode, 0, 1.0));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        private final N directoryNode;
+        private final int depth;
+        private final double progressShare;
+
+        DirectoryTask(Path directory, N directoryNode, int depth, double progressShare) {
+            this.directory = directory;
+            this.directoryNode = directoryNode;
+            this.depth = depth;
+            this.progressShare = progressShare;
+        }
+
+        @Override
+        protected void compute() {
+            if (canceled.get()) {
+                return;
+            }
+            updateProgress(directory.toString());
+
+            int entryCount;
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            List<Pair<File, N>> visitedEntries = visitor.visitDirectory(directoryNode, directory.toFile(), depth);
+            if (visitedEntries != null) {
+                entryCount = visitedEntries.size();
+                double entryProgressShare = (entryCount == 0) ? 0 : progressShare / entryCount;
+                for (Pair<File, N> entry : visitedEntries) {
+                    if (entry.second != null) {
+                        subtasks.add(new DirectoryTask(entry.first.toPath(), entry.second, depth + 1, entryProgressShare));
+                    }
+                }
+            }
+            else {
+                List<Path> entries = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path entry : stream) {
+                        entries.add(entry);
+                    }
+                }
+                catch (IOException | SecurityException e) {
+                    Log.e(Constants.appNameInternal, "Cannot list directory " + directory, e);
+                }
+
+                entryCount = entries.size();
+                double entryProgressShare = (entryCount == 0) ? 0 : progressShare / entryCount;
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    }
+                    catch (IOException | SecurityException e) {
+                        continue; // removed meanwhile, or not accessible
+                    }
+
+                    N node = visitor.visitEntry(directoryNode, entry.toFile(), attributes, depth + 1);
+                    if (attributes.isDirectory() && (node != null)) {
+                        subtasks.add(new DirectoryTask(entry, node, depth + 1, entryProgressShare));
+                    }
+                }
+            }
+
+            // the own share, the subdirectories add theirs, when finished
+            addProgress((entryCount == 0) ? progressShare : progressShare * (entryCount - subtasks.size()) / entryCount);
+
+            invokeAll(subtasks);
+            if (!canceled.get()) {
+                visitor.directoryWalked(directoryNode);
+            }
+        }
+    }
+
+    private void addProgress(double progress) {
+        progressDone.addAndGet((long) (progress * PROGRESS_RESOLUTION));
+    }
+
+    private void updateProgress(String path) {
+        if (progressThrottle.isUpdateDue()) {
+            String relativePath = path.startsWith(rootPath) ? path.substring(rootPath.length()) : path;
+            progressUpdater.accept(relativePath, progressStart + progressFactor * progressDone.get() / PROGRESS_RESOLUTION);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+import android.util.Pair;
+
+import com.sergenious.mediabrowser.Constants;
+import com.sergenious.mediabrowser.R;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/** Persistent index of the directories and the media files of the indexed roots, so the searches do not need
+ * to walk the disk. The directory entries keep the modification time of the directory at its last indexing,
+ * so the unchanged directories are not listed again by the rescans.
+ * The metadata of the media files (filled in the background) is in the B-tree indexes, so the
+ * {@link MediaSearchQuery} attribute terms do not scan the whole index. The name words are matched as the substrings,
+ * the same as by the directory walk, which a token index cannot do, so they only filter the path range. */
+public class FileIndexDatabase extends SQLiteOpenHelper {
+    public static final int TYPE_DIRECTORY = 0;
+    public static final int TYPE_IMAGE = 1;
+    public static final int TYPE_VIDEO = 2;
+
+    private static final String DB_NAME = "fileindex";
+    private static final String FILES_TABLE = "files";
+    private static final String ROOTS_TABLE = "roots";
+    private static final String FILE_ID = "id";
+    private static final String FILE_PATH = "path";
+    private static final String PARENT_PATH = "parent";
+    private static final String FILE_NAME = "name";
+    private static final String SEARCH_NAME = "search_name";
+    private static final String FILE_SIZE = "size";
+    private static final String FILE_TIME = "mtime";
+    private static final String FILE_TYPE = "type";
+    private static final String CAPTURE_TIME = "capture_time";
+    private static final String MAKE = "make";
+    private static final String MODEL = "model";
+    private static final String LATITUDE = "latitude";
+    private static final String LONGITUDE = "longitude";
+    private static final String METADATA_TIME = "metadata_mtime"; // of the file, when its metadata was indexed
+    private static final String INDEXED_TIME = "indexed_time";
+
+    private static final int FIRST_PAGE_SIZE = 64;
+    private static final int MAX_PAGE_SIZE = 1024;
+
+    private static final long UNKNOWN_TIME = -1; // the directory is not indexed yet
+
+    private static FileIndexDatabase instance;
+
+    private final SQLiteDatabase db;
+
+    public static class IndexedFile {
+        public final File file;
+        public final long size;
+        public final long time;
+        public final int type;
+
+        public IndexedFile(File file, long size, long time, int type) {
+            this.file = file;
+            this.size = size;
+            this.time = time;
+            this.type = type;
+        }
+    }
+
+    public static synchronized FileIndexDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new FileIndexDatabase(context);
+        }
+        return instance;
+    }
+
+    private FileIndexDatabase(Context context) {
+        super(context, DB_NAME, null, 4);
+        setWriteAheadLoggingEnabled(true);
+        db = getWritableDatabase();
+    }
+
+    /** Returns true, if the directory is in a root, which was completely indexed at least once. */
+    public boolean isIndexed(File dir) {
+        String dirPath = dir.getAbsolutePath();
+        try (Cursor cursor = db.query(ROOTS_TABLE, new String[] {FILE_PATH}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String rootPath = cursor.getString(0);
+                if (dirPath.equals(rootPath) || dirPath.startsWith(rootPath + "/")) {
+                    return true;
+                }
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+        return false;
+    }
+
+    public void setRootIndexed(File rootDir) {
+        try {
+            ContentValues contentValue = new ContentValues();
+            contentValue.put(FILE_PATH, rootDir.getAbsolutePath());
+            contentValue.put(INDEXED_TIME, System.currentTimeMillis());
+            db.insertWithOnConflict(ROOTS_TABLE, null, contentValue, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+    }
+
+    /** Returns the modification time of the directory at its last indexing, or null, if not indexed. */
+    public Long getDirectoryTime(File dir) {
+        try (Cursor cursor = db.query(FILES_TABLE, new String[] {FILE_TIME}, FILE_PATH + "=? AND " + FILE_TYPE + "=?",
+            new String[] {dir.getAbsolutePath(), Integer.toString(TYPE_DIRECTORY)}, null, null, null)) {
+
+            if (cursor.moveToNext() && (cursor.getLong(0) != UNKNOWN_TIME)) {
+                return cursor.getLong(0);
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+        return null;
+    }
+
+    public List<File> getSubdirectories(File dir) {
+        List<File> subdirs = new ArrayList<>();
+        try (Cursor cursor = db.query(FILES_TABLE, new String[] {FILE_PATH}, PARENT_PATH + "=? AND " + FILE_TYPE + "=?",
+            new String[] {dir.getAbsolutePath(), Integer.toString(TYPE_DIRECTORY)}, null, null, null)) {
+
+            while (cursor.moveToNext()) {
+                subdirs.add(new File(cursor.getString(0)));
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+        return subdirs;
+    }
+
+    /** Replaces the indexed entries of the directory by the listed ones, in a single transaction.
+     * The removed subdirectories are removed with their whole subtrees, the new ones are added as not indexed yet,
+     * and the existing ones keep their entries, so they are only rescanned, if changed.
+     * The unchanged files keep their entries too, with their indexed metadata. */
+    public void updateDirectory(File dir, long dirTime, List<IndexedFile> entries) {
+        String dirPath = dir.getAbsolutePath();
+        db.beginTransaction();
+        try {
+            Set<String> removedSubdirPaths = new HashSet<>();
+            Map<String, Pair<Long, Long>> removedFiles = new HashMap<>(); // the size and the time by the path
+            try (Cursor cursor = db.query(FILES_TABLE, new String[] {FILE_PATH, FILE_SIZE, FILE_TIME, FILE_TYPE},
+                PARENT_PATH + "=?", new String[] {dirPath}, null, null, null)) {
+
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(3) == TYPE_DIRECTORY) {
+                        removedSubdirPaths.add(cursor.getString(0));
+                    }
+                    else {
+                        removedFiles.put(cursor.getString(0), new Pair<>(cursor.getLong(1), cursor.getLong(2)));
+                    }
+                }
+            }
+
+            for (IndexedFile entry : entries) {
+                String path = entry.file.getAbsolutePath();
+                if (entry.type == TYPE_DIRECTORY) {
+                    if (!removedSubdirPaths.remove(path)) {
+                        db.insertWithOnConflict(FILES_TABLE, null, toContentValues(
+                            new IndexedFile(entry.file, 0, UNKNOWN_TIME, TYPE_DIRECTORY), dirPath), SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    continue;
+                }
+
+                Pair<Long, Long> indexedSizeAndTime = removedFiles.remove(path);
+                if ((indexedSizeAndTime == null) || (indexedSizeAndTime.first != entry.size)
+                    || (indexedSizeAndTime.second != entry.time)) {
+
+                    db.insertWithOnConflict(FILES_TABLE, null, toContentValues(entry, dirPath), SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            }
+
+            for (String path : removedFiles.keySet()) {
+                db.delete(FILES_TABLE, FILE_PATH + "=?", new String[] {path});
+            }
+            for (String subdirPath : removedSubdirPaths) {
+                deleteTree(subdirPath);
+            }
+
+            File parentDir = dir.getParentFile();
+            db.insertWithOnConflict(FILES_TABLE, null, toContentValues(new IndexedFile(dir, 0, dirTime, TYPE_DIRECTORY),
+                (parentDir != null) ? parentDir.getAbsolutePath() : ""), SQLiteDatabase.CONFLICT_REPLACE);
+
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Removes the directory and all the entries under it. */
+    public void removeDirectory(File dir) {
+        try {
+            deleteTree(dir.getAbsolutePath());
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+    }
+
+    /** Returns the media files, which are not in the index with their metadata yet (or changed since),
+     * ordered by the path, after the given path. */
+    public List<IndexedFile> getFilesWithoutMetadata(String afterPath, int maxCount) {
+        List<IndexedFile> files = new ArrayList<>();
+        try (Cursor cursor = db.query(FILES_TABLE, new String[] {FILE_PATH, FILE_SIZE, FILE_TIME, FILE_TYPE},
+            FILE_PATH + ">? AND " + FILE_TYPE + "<>? AND " + METADATA_TIME + "<>" + FILE_TIME,
+            new String[] {afterPath, Integer.toString(TYPE_DIRECTORY)}, null, null, FILE_PATH, Integer.toString(maxCount))) {
+
+            while (cursor.moveToNext()) {
+                files.add(new IndexedFile(new File(cursor.getString(0)), cursor.getLong(1), cursor.getLong(2), cursor.getInt(3)));
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+        return files;
+    }
+
+    /** Accepts null metadata, if the file has none, so it is not read again. */
+    public void updateMetadata(IndexedFile file, MediaMetadata metadata) {
+        try {
+            ContentValues contentValue = new ContentValues();
+            contentValue.put(METADATA_TIME, file.time);
+            contentValue.put(CAPTURE_TIME, ((metadata != null) && (metadata.captureTime != 0)) ? metadata.captureTime : null);
+            contentValue.put(MAKE, (metadata != null) ? metadata.make : null);
+            contentValue.put(MODEL, (metadata != null) ? metadata.model : null);
+            contentValue.put(LATITUDE, (metadata != null) ? metadata.latitude : null);
+            contentValue.put(LONGITUDE, (metadata != null) ? metadata.longitude : null);
+            db.update(FILES_TABLE, contentValue, FILE_PATH + "=? AND " + FILE_TIME + "=?",
+                new String[] {file.file.getAbsolutePath(), Long.toString(file.time)});
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+    }
+
+    /** Returns all the matching directories and media files under the directory, see {@link #searchFiles}. */
+    public List<FileUtils.FileInfo> searchFiles(MediaSearchQuery query, File rootDir) {
+        List<FileUtils.FileInfo> fileInfoList = new ArrayList<>();
+        searchFiles(query, rootDir, fileInfoList::addAll, () -> false);
+        return fileInfoList;
+    }
+
+    /** Passes the matching directories and media files under the directory (recursively), except the hidden ones,
+     * in the pages of growing size, ordered by the path, so the first results can be shown before the query
+     * is finished. The pages are read by the path ranges, so the later pages do not repeat the previous reads. */
+    public void searchFiles(MediaSearchQuery query, File rootDir,
+        Consumer<List<FileUtils.FileInfo>> pageConsumer, Supplier<Boolean> canceled) {
+
+        // the subtree is a range of the path index, as '0' follows '/'
+        String rootPath = rootDir.getAbsolutePath();
+        StringBuilder condition = new StringBuilder(FILE_PATH + ">? AND " + FILE_PATH + "<? AND "
+            + FILE_NAME + " NOT LIKE '.%'");
+        List<String> args = new ArrayList<>();
+        args.add(rootPath + "/");
+        args.add(rootPath + "0");
+        addQueryConditions(query, condition, args);
+
+        int pageSize = FIRST_PAGE_SIZE;
+        while (!canceled.get()) {
+            List<FileUtils.FileInfo> page = new ArrayList<>();
+            try (Cursor cursor = db.query(FILES_TABLE, new String[] {FILE_PATH, FILE_TIME, FILE_TYPE}, condition.toString(),
+                args.toArray(new String[0]), null, null, FILE_PATH, Integer.toString(pageSize))) {
+
+                while (cursor.moveToNext()) {
+                    boolean isDirectory = (cursor.getInt(2) == TYPE_DIRECTORY);
+                    page.add(new FileUtils.FileInfo(new File(cursor.getString(0)), false, null,
+                        isDirectory ? R.drawable.ic_folder : 0, cursor.getLong(1), isDirectory));
+                }
+            }
+            catch (Exception e) {
+                Log.e(Constants.appNameInternal, "Error reading from DB", e);
+            }
+
+            if (!page.isEmpty() && !canceled.get()) {
+                pageConsumer.accept(page);
+            }
+            if (page.size() < pageSize) {
+                break;
+            }
+            args.set(0, page.get(page.size() - 1).file.getAbsolutePath()); // the next page starts after the last path
+            pageSize = Math.min(MAX_PAGE_SIZE, pageSize * 2);
+        }
+    }
+
+    private static void addQueryConditions(MediaSearchQuery query, StringBuilder condition, List<String> args) {
+        // the same rule as MediaSearchQuery.matchesName, the search names are already in the lower case
+        for (String word : query.getSearchWords()) {
+            condition.append(" AND " + SEARCH_NAME + " LIKE ? ESCAPE '\\'");
+            args.add("%" + escapeLikePattern(word) + "%");
+        }
+
+        if (query.takenFrom != null) {
+            condition.append(" AND " + CAPTURE_TIME + ">=? AND " + CAPTURE_TIME + "<?");
+            args.add(Long.toString(query.takenFrom));
+            args.add(Long.toString(query.takenTo));
+        }
+        if (query.camera != null) {
+            condition.append(" AND (" + MODEL + " LIKE ? ESCAPE '\\' OR " + MAKE + " LIKE ? ESCAPE '\\')");
+            String cameraPattern = escapeLikePattern(query.camera) + "%";
+            args.add(cameraPattern);
+            args.add(cameraPattern);
+        }
+        if (query.minLatitude != null) {
+            condition.append(" AND " + LATITUDE + " BETWEEN ? AND ? AND " + LONGITUDE + " BETWEEN ? AND ?");
+            args.add(Double.toString(query.minLatitude));
+            args.add(Double.toString(query.maxLatitude));
+            args.add(Double.toString(query.minLongitude));
+            args.add(Double.toString(query.maxLongitude));
+        }
+        if (query.fileType != null) {
+            condition.append(" AND " + FILE_TYPE + "=?");
+            args.add(Integer.toString(query.fileType));
+        }
+    }
+
+    private static String escapeLikePattern(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private void deleteTree(String dirPath) {
+        db.delete(FILES_TABLE, FILE_PATH + "=? OR (" + FILE_PATH + ">? AND " + FILE_PATH + "<?)",
+            new String[] {dirPath, dirPath + "/", dirPath + "0"});
+    }
+
+    private static ContentValues toContentValues(IndexedFile entry, String parentPath) {
+        String fileName = entry.file.getName();
+        ContentValues contentValue = new ContentValues();
+        contentValue.put(FILE_PATH, entry.file.getAbsolutePath());
+        contentValue.put(PARENT_PATH, parentPath);
+        contentValue.put(FILE_NAME, fileName);
+        contentValue.put(SEARCH_NAME, MediaSearchQuery.getSearchName(fileName, entry.type == TYPE_DIRECTORY));
+        contentValue.put(FILE_SIZE, entry.size);
+        contentValue.put(FILE_TIME, entry.time);
+        contentValue.put(FILE_TYPE, entry.type);
+        contentValue.put(METADATA_TIME, UNKNOWN_TIME);
+        return contentValue;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("create table " + FILES_TABLE + "(" + FILE_ID + " INTEGER PRIMARY KEY, "
+            + FILE_PATH + " TEXT UNIQUE NOT NULL, "
+            + PARENT_PATH + " TEXT NOT NULL, " + FILE_NAME + " TEXT NOT NULL, " + SEARCH_NAME + " TEXT NOT NULL, "
+            + FILE_SIZE + " int NOT NULL, " + FILE_TIME + " int NOT NULL, " + FILE_TYPE + " int NOT NULL, "
+            + CAPTURE_TIME + " int, " + MAKE + " TEXT, " + MODEL + " TEXT, " + LATITUDE + " real, " + LONGITUDE + " real, "
+            + METADATA_TIME + " int NOT NULL);");
+        db.execSQL("create index " + FILES_TABLE + "_" + PARENT_PATH + " on " + FILES_TABLE + "(" + PARENT_PATH + ");");
+        db.execSQL("create index " + FILES_TABLE + "_" + CAPTURE_TIME + " on " + FILES_TABLE + "(" + CAPTURE_TIME + ");");
+        db.execSQL("create index " + FILES_TABLE + "_" + MAKE + " on " + FILES_TABLE + "(" + MAKE + " COLLATE NOCASE);");
+        db.execSQL("create index " + FILES_TABLE + "_" + MODEL + " on " + FILES_TABLE + "(" + MODEL + " COLLATE NOCASE);");
+        db.execSQL("create index " + FILES_TABLE + "_" + LATITUDE + " on " + FILES_TABLE + "("
+            + LATITUDE + ", " + LONGITUDE + ");");
+
+        db.execSQL("create table " + ROOTS_TABLE + "(" + FILE_PATH + " TEXT PRIMARY KEY NOT NULL, "
+            + INDEXED_TIME + " int NOT NULL);");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // the index is rebuilt by the next rescan, with the stable row ids for the name index
+            db.execSQL("drop table if exists " + FILES_TABLE + ";");
+            db.execSQL("drop table if exists " + ROOTS_TABLE + ";");
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 3) {
+            // the names are matched as the substrings now, the full-text index could only match the word prefixes
+            db.execSQL("drop trigger if exists " + FILES_TABLE + "_insert;");
+            db.execSQL("drop trigger if exists " + FILES_TABLE + "_delete;");
+            db.execSQL("drop table if exists files_fts;");
+        }
+        if (oldVersion < 4) {
+            // the capture time of the videos was not indexed, so their metadata is indexed again
+            db.execSQL("update " + FILES_TABLE + " set " + METADATA_TIME + "=" + UNKNOWN_TIME + " where "
+                + FILE_TYPE + "=" + TYPE_VIDEO + ";");
+        }
+    }
+}
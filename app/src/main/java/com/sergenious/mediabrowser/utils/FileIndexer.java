@@ -0,0 +1,273 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.util.Log;
+
+import com.sergenious.mediabrowser.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/** Keeps the {@link FileIndexDatabase} of the root directories current in the background.
+ * The rescans list only the directories, whose modification time changed since their last indexing,
+ * and the directories are watched by the file observers, so the changes are indexed as they happen.
+ * After the rescans, the metadata of the new and changed media files is indexed. */
+public class FileIndexer {
+    private static final int MAX_OBSERVED_DIRECTORIES = 4096; // the inotify watches are limited
+    private static final long RESCAN_DELAY = 1000; // ms, the burst of events of a directory is indexed once
+    private static final int METADATA_BATCH_SIZE = 256;
+    private static final int OBSERVED_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+        | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static FileIndexer instance;
+
+    private final Context context;
+    private final FileIndexDatabase database;
+    private final ScheduledExecutorService executor;
+    private final Map<String, DirectoryObserver> observers = new HashMap<>(); // used by the executor thread only
+    private final Set<String> pendingRescanPaths = ConcurrentHashMap.newKeySet();
+    private final Set<String> startedRootPaths = new HashSet<>(); // the file observers keep them current afterwards
+
+    public static synchronized FileIndexer getInstance(Context context) {
+        if (instance == null) {
+            instance = new FileIndexer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FileIndexer(Context context) {
+        this.context = context;
+        database = FileIndexDatabase.getInstance(context);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileIndexerThread");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /** Rescans the root directories in the background, the first time they are indexed completely.
+     * Each root is rescanned only once per process, so the activity can call this whenever it is created. */
+    public synchronized void start(Collection<File> rootDirs) {
+        List<File> rootDirList = new ArrayList<>();
+        for (File rootDir : rootDirs) {
+            if (startedRootPaths.add(rootDir.getAbsolutePath())) {
+                rootDirList.add(rootDir);
+            }
+        }
+        if (rootDirList.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> {
+            for (File rootDir : rootDirList) {
+                try {
+                    rescan(rootDir, false);
+                    database.setRootIndexed(rootDir);
+                }
+                catch (Exception e) {
+                    Log.e(Constants.appNameInternal, "Error indexing " + rootDir.getAbsolutePath(), e);
+                }
+            }
+            indexMetadata();
+        });
+    }
+
+    public boolean isIndexed(File dir) {
+        return database.isIndexed(dir);
+    }
+
+    /** Returns the files from the index, if the directory is already indexed, otherwise walks the directory. */
+    public List<FileUtils.FileInfo> searchFiles(String query, File rootDir, FileUtils.FileSortMode sortMode,
+        double progress, double progressFactor, BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled) {
+
+        MediaSearchQuery searchQuery = MediaSearchQuery.parse(query);
+        if (!database.isIndexed(rootDir)) {
+            return FileUtils.searchFiles(searchQuery, rootDir, MediaUtils.getMediaFileFilter(), sortMode,
+                progress, progressFactor, progressUpdater, canceled);
+        }
+
+        List<FileUtils.FileInfo> fileInfoList = database.searchFiles(searchQuery, rootDir);
+        fileInfoList.sort(sortMode.getComparator());
+        return fileInfoList;
+    }
+
+    /** Passes the matching files to the consumer in the pages, as they are read from the index.
+     * If the directory is not indexed yet, walks it, by the name words of the query only, and passes
+     * all the found files at once. */
+    public void searchFiles(MediaSearchQuery query, File rootDir,
+        Consumer<List<FileUtils.FileInfo>> pageConsumer, Supplier<Boolean> canceled) {
+
+        if (database.isIndexed(rootDir)) {
+            database.searchFiles(query, rootDir, pageConsumer, canceled);
+            return;
+        }
+
+        List<FileUtils.FileInfo> fileInfoList = FileUtils.searchFiles(query, rootDir,
+            MediaUtils.getMediaFileFilter(), FileUtils.FileSortMode.PATH, (path, progress) -> {}, canceled);
+        if (!fileInfoList.isEmpty() && !canceled.get()) {
+            pageConsumer.accept(fileInfoList);
+        }
+    }
+
+    /** Reads the metadata of the files, which are not in the index with it yet, by the cache of the metadata. */
+    private void indexMetadata() {
+        MetadataDatabase metadataDatabase = MetadataDatabase.getInstance(context);
+        String lastPath = "";
+        List<FileIndexDatabase.IndexedFile> files;
+        while (!(files = database.getFilesWithoutMetadata(lastPath, METADATA_BATCH_SIZE)).isEmpty()) {
+            List<File> batch = new ArrayList<>();
+            for (FileIndexDatabase.IndexedFile file : files) {
+                batch.add(file.file);
+            }
+            Map<File, MediaMetadata> metadataByFile = metadataDatabase.getMetadata(batch);
+            for (FileIndexDatabase.IndexedFile file : files) {
+                database.updateMetadata(file, metadataByFile.get(file.file));
+            }
+            lastPath = files.get(files.size() - 1).file.getAbsolutePath();
+        }
+    }
+
+    /** Indexes the directory and its changed subdirectories. The directory itself is listed again,
+     * if forced, as the changes of its files do not change its modification time. */
+    private void rescan(File rootDir, boolean forceRootListing) {
+        Deque<File> dirs = new ArrayDeque<>();
+        dirs.push(rootDir);
+
+        while (!dirs.isEmpty()) {
+            File dir = dirs.pop();
+            BasicFileAttributes dirAttributes;
+            try {
+                dirAttributes = Files.readAttributes(dir.toPath(), BasicFileAttributes.class);
+            }
+            catch (IOException | SecurityException e) {
+                dirAttributes = null;
+            }
+            if ((dirAttributes == null) || !dirAttributes.isDirectory()) {
+                database.removeDirectory(dir);
+                stopObserving(dir);
+                continue;
+            }
+
+            long dirTime = dirAttributes.lastModifiedTime().toMillis();
+            Long indexedTime = database.getDirectoryTime(dir);
+            boolean isChanged = (indexedTime == null) || (indexedTime != dirTime) || (forceRootListing && (dir == rootDir));
+            List<File> subdirs = isChanged ? indexDirectory(dir, dirTime) : database.getSubdirectories(dir);
+
+            startObserving(dir);
+            for (File subdir : subdirs) {
+                dirs.push(subdir);
+            }
+        }
+    }
+
+    /** Lists the directory, with a single stat per entry, and updates its entries in the index.
+     * Returns the subdirectories. */
+    private List<File> indexDirectory(File dir, long dirTime) {
+        MediaFileFilter fileFilter = MediaUtils.getMediaFileFilter();
+        List<FileIndexDatabase.IndexedFile> entries = new ArrayList<>();
+        List<File> subdirs = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                }
+                catch (IOException e) {
+                    continue; // removed meanwhile
+                }
+
+                File file = path.toFile();
+                if (attributes.isDirectory()) {
+                    subdirs.add(file);
+                    entries.add(new FileIndexDatabase.IndexedFile(file, 0,
+                        attributes.lastModifiedTime().toMillis(), FileIndexDatabase.TYPE_DIRECTORY));
+                }
+                else if (fileFilter.accept(fileName)) {
+                    boolean isImage = MediaUtils.isImageExtension(FileUtils.getFileExtension(file));
+                    entries.add(new FileIndexDatabase.IndexedFile(file, attributes.size(),
+                        attributes.lastModifiedTime().toMillis(),
+                        isImage ? FileIndexDatabase.TYPE_IMAGE : FileIndexDatabase.TYPE_VIDEO));
+                }
+            }
+        }
+        catch (IOException | SecurityException e) {
+            Log.e(Constants.appNameInternal, "Cannot list directory " + dir.getAbsolutePath(), e);
+            return database.getSubdirectories(dir); // keeps the index as it was
+        }
+
+        database.updateDirectory(dir, dirTime, entries);
+        return subdirs;
+    }
+
+    private void startObserving(File dir) {
+        String dirPath = dir.getAbsolutePath();
+        if (!observers.containsKey(dirPath) && (observers.size() < MAX_OBSERVED_DIRECTORIES)) {
+            DirectoryObserver observer = new DirectoryObserver(dir);
+            observers.put(dirPath, observer);
+            observer.startWatching();
+        }
+    }
+
+    private void stopObserving(File dir) {
+        DirectoryObserver observer = observers.remove(dir.getAbsolutePath());
+        if (observer != null) {
+            observer.stopWatching();
+        }
+    }
+
+    private void scheduleRescan(File dir) {
+        if (pendingRescanPaths.add(dir.getAbsolutePath())) {
+            executor.schedule(() -> {
+                pendingRescanPaths.remove(dir.getAbsolutePath());
+                try {
+                    rescan(dir, true);
+                    indexMetadata();
+                }
+                catch (Exception e) {
+                    Log.e(Constants.appNameInternal, "Error indexing " + dir.getAbsolutePath(), e);
+                }
+            }, RESCAN_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Watches a single directory, as the file observers are not recursive. */
+    private class DirectoryObserver extends FileObserver {
+        private final File dir;
+
+        @SuppressWarnings("deprecation") // the file constructor needs API 29
+        DirectoryObserver(File dir) {
+            super(dir.getAbsolutePath(), OBSERVED_EVENTS);
+            this.dir = dir;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            // the removed directory is found missing by the rescan, and removed from the index
+            if ((event & OBSERVED_EVENTS) != 0) {
+                scheduleRescan(dir);
+            }
+        }
+    }
+}
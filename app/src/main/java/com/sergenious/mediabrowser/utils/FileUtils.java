@@ -12,7 +12,9 @@ import com.sergenious.mediabrowser.R;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -21,12 +23,18 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class FileUtils {
     private static final DecimalFormat fileSizeFormatter = new DecimalFormat("#,###.##");
+    private static final int FIRST_LISTING_BATCH_SIZE = 64; // about a screen, the next batches are larger
+    private static final int MAX_LISTING_BATCH_SIZE = 1024;
+    private static final int LISTING_CANCEL_CHECK_INTERVAL = 256; // entries
 
     public enum FileSortMode {
         PATH_DIRS_FILES(R.string.sort_path_dirs_files, PATH_DIRS_FILES_COMPARATOR),
@@ -57,13 +65,20 @@ public class FileUtils {
         public final String name;
         public final int iconResId;
         public final long fileTime;
+        public final boolean isDirectory;
 
         public FileInfo(File file, boolean isRootDir, String name, int iconResId, long fileTime) {
+            this(file, isRootDir, name, iconResId, fileTime, (file != null) && file.isDirectory());
+        }
+
+        /** With the already known file type, so the file is not stat-ed again. */
+        public FileInfo(File file, boolean isRootDir, String name, int iconResId, long fileTime, boolean isDirectory) {
             this.file = file;
             this.isRootDir = isRootDir;
             this.name = name;
             this.iconResId = iconResId;
             this.fileTime = fileTime;
+            this.isDirectory = isDirectory;
         }
     }
 
@@ -168,89 +183,103 @@ public class FileUtils {
         return rootDirectories;
     }
 
-    public static List<FileInfo> getFileList(File currDir, List<String> extensions, boolean includeDirs, FileSortMode sortMode) {
+    public static List<FileInfo> getFileList(File currDir, MediaFileFilter fileFilter, boolean includeDirs, FileSortMode sortMode) {
         List<FileInfo> fileInfoList = new ArrayList<>();
-        String fileNameFilterRegEx = getFileFilterRegEx(extensions);
-
-        File[] files = (currDir != null) ? currDir.listFiles() : null;
-        if (files != null) {
-            for (File file: files) {
-                boolean isDirectory = file.isDirectory();
-                if (!file.getName().startsWith(".")
-                    && (isDirectory || file.getName().toLowerCase().matches(fileNameFilterRegEx))) {
-
-                    if (includeDirs || !isDirectory) {
-                        FileInfo fileInfo = new FileInfo(file, false, null,
-                            isDirectory ? R.drawable.ic_folder : 0, getFileLastModifiedTime(file));
-                        fileInfoList.add(fileInfo);
-                    }
-                }
-            }
-        }
+        listFiles(currDir, fileFilter, includeDirs, fileInfoList::addAll, () -> false);
 
         fileInfoList.sort(sortMode.getComparator());
 
         return fileInfoList;
     }
 
-    public static List<FileInfo> searchFiles(String query, File rootDir, List<String> extensions, FileSortMode sortMode,
-        BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled) {
+    /** Lists the directory in growing batches (not sorted), so the first entries can be shown before
+     * the whole directory is read. The entries are read by a directory stream, with a single stat per entry. */
+    public static void listFiles(File currDir, MediaFileFilter fileFilter, boolean includeDirs,
+        Consumer<List<FileInfo>> batchConsumer, Supplier<Boolean> canceled) {
 
-        return searchFiles(query, rootDir, extensions, sortMode, 0.0, 1.0, progressUpdater, canceled);
-    }
+        if (currDir == null) {
+            return;
+        }
 
-    public static List<FileInfo> searchFiles(String query, File rootDir, List<String> extensions, FileSortMode sortMode,
-        double progress, double progressFactor, BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled) {
+        List<FileInfo> batch = new ArrayList<>();
+        int batchSize = FIRST_LISTING_BATCH_SIZE;
+        int readCount = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(currDir.toPath())) {
+            for (Path path : stream) {
+                // checked by the read entries, as the batches of a directory of mostly other files rarely fill
+                if ((++readCount % LISTING_CANCEL_CHECK_INTERVAL == 0) && canceled.get()) {
+                    return;
+                }
+                String fileName = path.getFileName().toString();
+                if (fileName.startsWith(".")) {
+                    continue;
+                }
 
-        List<FileInfo> fileInfoList = new ArrayList<>();
-        searchFilesInternal((query != null) ? query.toLowerCase() : null, rootDir, rootDir, fileInfoList,
-            getFileFilterRegEx(extensions), progressUpdater, canceled, progress, progressFactor);
+                BasicFileAttributes fileAttr;
+                try {
+                    fileAttr = Files.readAttributes(path, BasicFileAttributes.class);
+                }
+                catch (IOException e) {
+                    continue; // removed meanwhile
+                }
 
-        fileInfoList.sort(sortMode.getComparator());
+                boolean isDirectory = fileAttr.isDirectory();
+                if ((isDirectory && includeDirs) || (!isDirectory && fileFilter.accept(fileName))) {
+                    batch.add(new FileInfo(path.toFile(), false, null, isDirectory ? R.drawable.ic_folder : 0,
+                        fileAttr.lastModifiedTime().toMillis(), isDirectory));
+                }
 
-        return fileInfoList;
+                if (batch.size() >= batchSize) {
+                    if (canceled.get()) {
+                        return;
+                    }
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>();
+                    batchSize = Math.min(MAX_LISTING_BATCH_SIZE, batchSize * 2);
+                }
+            }
+        }
+        catch (IOException | SecurityException e) {
+            Log.e(Constants.appNameInternal, "Cannot list directory " + currDir.getAbsolutePath(), e);
+        }
+
+        if (!batch.isEmpty() && !canceled.get()) {
+            batchConsumer.accept(batch);
+        }
     }
 
-    private static void searchFilesInternal(String query, File currDir, File rootDir,
-        List<FileInfo> fileInfoList, String fileNameFilterRegEx,
-        BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled,
-        double progress, double progressFactor) {
+    public static List<FileInfo> searchFiles(MediaSearchQuery query, File rootDir, MediaFileFilter fileFilter,
+        FileSortMode sortMode, BiConsumer<String, Double> progressUpdater, Supplier<Boolean> canceled) {
 
-        if (canceled.get()) {
-            return;
-        }
-        progressUpdater.accept(currDir.getAbsolutePath().substring(rootDir.getAbsolutePath().length()), progress);
+        return searchFiles(query, rootDir, fileFilter, sortMode, 0.0, 1.0, progressUpdater, canceled);
+    }
 
-        File[] files = currDir.listFiles();
-        if (files != null) {
-            progressFactor /= files.length;
+    /** Only the name words of the query are matched, the metadata is not read. */
+    public static List<FileInfo> searchFiles(MediaSearchQuery query, File rootDir, MediaFileFilter fileFilter,
+        FileSortMode sortMode, double progress, double progressFactor, BiConsumer<String, Double> progressUpdater,
+        Supplier<Boolean> canceled) {
 
-            for (int fileIndex = 0; fileIndex < files.length; fileIndex++) {
-                File file = files[fileIndex];
-                boolean isDirectory = file.isDirectory();
+        Queue<FileInfo> foundFiles = new ConcurrentLinkedQueue<>();
 
-                if (!file.getName().startsWith(".")
-                    && (isDirectory || file.getName().toLowerCase().matches(fileNameFilterRegEx))) {
+        new DirectoryWalker<Boolean>((parentNode, file, attributes, depth) -> {
+            String fileName = file.getName();
+            boolean isDirectory = attributes.isDirectory();
 
-                    int lastDotPos = isDirectory ? -1 : file.getName().lastIndexOf('.');
-                    String name = (lastDotPos >= 0) ? file.getName().substring(0, lastDotPos) : file.getName();
-                    if ((query == null) || name.toLowerCase().contains(query)) {
-                        FileInfo fileInfo = new FileInfo(file, false, null,
-                            isDirectory ? R.drawable.ic_folder : 0, getFileLastModifiedTime(file));
-                        fileInfoList.add(fileInfo);
-                    }
-                }
-                if (isDirectory) {
-                    searchFilesInternal(query, file, rootDir, fileInfoList,
-                        fileNameFilterRegEx, progressUpdater, canceled,
-                        progress + progressFactor * fileIndex, progressFactor);
+            if (!fileName.startsWith(".")
+                && (isDirectory || fileFilter.accept(fileName))) {
+
+                if (query.matchesName(MediaSearchQuery.getSearchName(fileName, isDirectory))) {
+                    foundFiles.add(new FileInfo(file, false, null,
+                        isDirectory ? R.drawable.ic_folder : 0, attributes.lastModifiedTime().toMillis(), isDirectory));
                 }
             }
-        }
-    }
+            return Boolean.TRUE; // all the subdirectories are searched
+        }, progressUpdater, canceled, progress, progressFactor).walk(rootDir, Boolean.TRUE);
+
+        List<FileInfo> fileInfoList = new ArrayList<>(foundFiles);
+        fileInfoList.sort(sortMode.getComparator());
 
-    private static String getFileFilterRegEx(List<String> extensions) {
-        return extensions.stream().map(e -> "..*?\\." + e).collect(Collectors.joining("|"));
+        return fileInfoList;
     }
 
     // This is a little hack, by removing the path parts from the left,
@@ -281,10 +310,10 @@ public class FileUtils {
 
     // comparator that displays directories first
     private static final Comparator<FileInfo> PATH_DIRS_FILES_COMPARATOR = (info0, info1) -> {
-        if (info0.file.isDirectory() && !info1.file.isDirectory()) {
+        if (info0.isDirectory && !info1.isDirectory) {
             return -1;
         }
-        if (!info0.file.isDirectory() && info1.file.isDirectory()) {
+        if (!info0.isDirectory && info1.isDirectory) {
             return +1;
         }
         return info0.file.getName().compareToIgnoreCase(info1.file.getName());
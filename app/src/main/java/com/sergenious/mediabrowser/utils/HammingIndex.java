@@ -0,0 +1,88 @@
+package com.sergenious.mediabrowser.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** Multi-index hashing of the 64-bit hashes, for finding the hashes within a small Hamming distance without comparing
+ * them with all the others: the hashes are split into 4 chunks of 16 bits, each indexed in its own table. Two hashes
+ * within the distance d have at least one chunk within d / 4 (the pigeonhole principle), so only the table buckets
+ * of the chunk values within d / 4 of the query chunks are checked.
+ * The tables are the linked lists of the hash indices in the primitive arrays. */
+public class HammingIndex {
+    private static final int CHUNK_COUNT = 4;
+    private static final int CHUNK_BITS = Long.SIZE / CHUNK_COUNT;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NONE = -1;
+
+    private final int[][] bucketHeads = new int[CHUNK_COUNT][1 << CHUNK_BITS];
+    private int[][] nextInBuckets = new int[CHUNK_COUNT][INITIAL_CAPACITY];
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private int[] lastQueries = new int[INITIAL_CAPACITY]; // so the hashes found by more chunks are reported once
+    private int queryCount;
+    private int size;
+
+    public HammingIndex() {
+        for (int[] heads : bucketHeads) {
+            Arrays.fill(heads, NONE);
+        }
+    }
+
+    /** Returns the index of the added hash. */
+    public int add(long hash) {
+        if (size == hashes.length) {
+            int newCapacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, newCapacity);
+            lastQueries = Arrays.copyOf(lastQueries, newCapacity);
+            for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+                nextInBuckets[chunk] = Arrays.copyOf(nextInBuckets[chunk], newCapacity);
+            }
+        }
+        int index = size++;
+        hashes[index] = hash;
+        lastQueries[index] = 0;
+        for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+            int chunkValue = getChunk(hash, chunk);
+            nextInBuckets[chunk][index] = bucketHeads[chunk][chunkValue];
+            bucketHeads[chunk][chunkValue] = index;
+        }
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Reports the indices of the hashes within the given distance (inclusive). The cost grows quickly
+     * with the distance, it is meant for the distances up to about a sixth of the bits. */
+    public void find(long hash, int maxDistance, IntConsumer resultConsumer) {
+        int query = ++queryCount;
+        for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+            findInChunk(hash, maxDistance, chunk, getChunk(hash, chunk), 0, maxDistance / CHUNK_COUNT, query,
+                resultConsumer);
+        }
+    }
+
+    /** Checks the bucket of the chunk value, and of the values with up to the given number of the bits flipped,
+     * from the given bit on. */
+    private void findInChunk(long hash, int maxDistance, int chunk, int chunkValue, int fromBit, int maxFlips,
+        int query, IntConsumer resultConsumer) {
+
+        for (int index = bucketHeads[chunk][chunkValue]; index != NONE; index = nextInBuckets[chunk][index]) {
+            if ((lastQueries[index] != query) && (PerceptualHash.distance(hash, hashes[index]) <= maxDistance)) {
+                lastQueries[index] = query;
+                resultConsumer.accept(index);
+            }
+        }
+        if (maxFlips == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+            findInChunk(hash, maxDistance, chunk, chunkValue ^ (1 << bit), bit + 1, maxFlips - 1, query, resultConsumer);
+        }
+    }
+
+    private static int getChunk(long hash, int chunk) {
+        return (int) (hash >>> (chunk * CHUNK_BITS)) & CHUNK_MASK;
+    }
+}
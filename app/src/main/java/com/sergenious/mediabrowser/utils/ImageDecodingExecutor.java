@@ -0,0 +1,86 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.util.Log;
+
+import com.sergenious.mediabrowser.Constants;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Process-wide, bounded pool for the image decoding, so a burst of requests (e.g. fast swiping) cannot run
+ * more large decodes at once than the pool size. The queued tasks run by their priority, then in the order
+ * of their submission, so the shown image is decoded before the neighbours and the prefetched images.
+ * The returned handles cancel the queued tasks; the running decodes are not interrupted. */
+public class ImageDecodingExecutor {
+    public enum Priority {
+        CURRENT,
+        NEIGHBOUR,
+        THUMBNAIL,
+        PREFETCH,
+    }
+
+    private static ImageDecodingExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private static class Task extends FutureTask<Void> implements Comparable<Task> {
+        private final Priority priority;
+        private final long sequence;
+
+        Task(Runnable runnable, Priority priority, long sequence) {
+            super(runnable, null);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int result = priority.compareTo(other.priority);
+            return (result != 0) ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public static synchronized ImageDecodingExecutor getInstance() {
+        if (instance == null) {
+            instance = new ImageDecodingExecutor(Constants.NUM_IMAGE_LOADING_THREADS);
+        }
+        return instance;
+    }
+
+    private ImageDecodingExecutor(int numThreads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "ImageDecodingThread" + threadIndex.getAndIncrement());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+    }
+
+    /** The returned handle is to be cancelled, when the result is not needed anymore. */
+    public Future<?> submit(Priority priority, Runnable runnable) {
+        Task task = new Task(() -> {
+            try {
+                runnable.run();
+            }
+            catch (Exception e) {
+                Log.e(Constants.appNameInternal, "Error decoding image", e);
+            }
+        }, priority, sequence.getAndIncrement());
+        executor.execute(task);
+        return task;
+    }
+
+    /** Cancels the task, if not started yet, and removes it from the queue. Accepts null. */
+    public void cancel(Future<?> task) {
+        if ((task != null) && task.cancel(false) && (task instanceof Runnable)) {
+            executor.remove((Runnable) task);
+        }
+    }
+}
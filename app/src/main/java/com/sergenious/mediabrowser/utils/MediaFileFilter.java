@@ -0,0 +1,51 @@
+package com.sergenious.mediabrowser.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** Matches the file names by their extension (after the last dot, case insensitive), without allocations,
+ * so it can be called for each entry of the large directories. The extensions are grouped by their length,
+ * so only the ones of the same length are compared. */
+public class MediaFileFilter {
+    private final String[][] extensionsByLength;
+
+    public MediaFileFilter(Collection<String> extensions) {
+        int maxLength = 0;
+        for (String extension : extensions) {
+            maxLength = Math.max(maxLength, extension.length());
+        }
+
+        List<List<String>> extensionLists = new ArrayList<>();
+        for (int length = 0; length <= maxLength; length++) {
+            extensionLists.add(new ArrayList<>());
+        }
+        for (String extension : extensions) {
+            extensionLists.get(extension.length()).add(extension);
+        }
+
+        extensionsByLength = new String[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            extensionsByLength[length] = extensionLists.get(length).toArray(new String[0]);
+        }
+    }
+
+    /** The name must have at least one character before the extension. */
+    public boolean accept(String fileName) {
+        int dotPos = fileName.lastIndexOf('.');
+        if (dotPos <= 0) {
+            return false;
+        }
+        int extensionLength = fileName.length() - dotPos - 1;
+        if ((extensionLength == 0) || (extensionLength >= extensionsByLength.length)) {
+            return false;
+        }
+
+        for (String extension : extensionsByLength[extensionLength]) {
+            if (fileName.regionMatches(true, dotPos + 1, extension, 0, extensionLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.graphics.RectF;
+import android.util.Pair;
+import android.util.Size;
+
+/** Metadata of a media file, which is needed for browsing and viewing, so it can be cached. */
+public class MediaMetadata {
+    public final int width;
+    public final int height;
+    public final int orientation;
+    public final long captureTime; // ms, 0 if unknown
+    public final Double latitude;
+    public final Double longitude;
+    public final String make;
+    public final String model;
+    public final boolean isPano;
+    public final RectF panoRect;
+    public final double duration; // s, only for videos
+    public final long thumbnailOffset; // of the embedded EXIF thumbnail in the file, 0 if none
+    public final int thumbnailLength;
+
+    public MediaMetadata(int width, int height, int orientation, long captureTime,
+        Double latitude, Double longitude, String make, String model,
+        boolean isPano, RectF panoRect, double duration, long thumbnailOffset, int thumbnailLength) {
+
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+        this.captureTime = captureTime;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.make = make;
+        this.model = model;
+        this.isPano = isPano;
+        this.panoRect = panoRect;
+        this.duration = duration;
+        this.thumbnailOffset = thumbnailOffset;
+        this.thumbnailLength = thumbnailLength;
+    }
+
+    /** Size of the stored image (not rotated) and the EXIF orientation, as used by the image loading. */
+    public Pair<Size, Integer> getSizeAndOrientation() {
+        return new Pair<>(new Size(width, height), orientation);
+    }
+}
@@ -0,0 +1,176 @@
+package com.sergenious.mediabrowser.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/** Parsed search text of the media index. The plain words are matched as the substrings of the names (without
+ * the extension, case insensitive), all of them, in any order, the same in the index and by the directory walk.
+ * The attribute terms filter by the metadata of the files:
+ * <ul>
+ *   <li>taken:2024, taken:2024-06, taken:2024-06-15, or a range taken:2024-06..2024-08 (local time),
+ *   by the EXIF time of the images and the recording date of the videos</li>
+ *   <li>camera:pixel, camera:"Pixel 7" (prefix of the camera make or model)</li>
+ *   <li>box:lat1,lon1,lat2,lon2 (GPS bounding box, in degrees)</li>
+ *   <li>type:image, type:video</li>
+ * </ul>
+ * The terms, which cannot be parsed, are matched as the words of the names. */
+public class MediaSearchQuery {
+    private static final String TAKEN_TERM = "taken:";
+    private static final String CAMERA_TERM = "camera:";
+    private static final String BOX_TERM = "box:";
+    private static final String TYPE_TERM = "type:";
+    private static final String[] DATE_FORMATS = {"yyyy-MM-dd", "yyyy-MM", "yyyy"};
+    private static final int[] DATE_FIELDS = {Calendar.DAY_OF_MONTH, Calendar.MONTH, Calendar.YEAR};
+
+    public final List<String> nameWords = new ArrayList<>();
+    public Long takenFrom; // ms, inclusive
+    public Long takenTo; // ms, exclusive
+    public String camera;
+    public Double minLatitude;
+    public Double maxLatitude;
+    public Double minLongitude;
+    public Double maxLongitude;
+    public Integer fileType; // FileIndexDatabase.TYPE_IMAGE or TYPE_VIDEO
+
+    /** Accepts null, which matches all the files. */
+    public static MediaSearchQuery parse(String text) {
+        MediaSearchQuery query = new MediaSearchQuery();
+        for (String term : (text != null) ? splitTerms(text) : Collections.<String>emptyList()) {
+            String lowerCaseTerm = term.toLowerCase(Locale.ROOT);
+            boolean isParsed = false;
+            if (lowerCaseTerm.startsWith(TAKEN_TERM)) {
+                isParsed = query.parseTaken(term.substring(TAKEN_TERM.length()));
+            }
+            else if (lowerCaseTerm.startsWith(CAMERA_TERM) && (term.length() > CAMERA_TERM.length())) {
+                query.camera = term.substring(CAMERA_TERM.length());
+                isParsed = true;
+            }
+            else if (lowerCaseTerm.startsWith(BOX_TERM)) {
+                isParsed = query.parseBox(term.substring(BOX_TERM.length()));
+            }
+            else if (lowerCaseTerm.equals(TYPE_TERM + "image")) {
+                query.fileType = FileIndexDatabase.TYPE_IMAGE;
+                isParsed = true;
+            }
+            else if (lowerCaseTerm.equals(TYPE_TERM + "video")) {
+                query.fileType = FileIndexDatabase.TYPE_VIDEO;
+                isParsed = true;
+            }
+
+            if (!isParsed) {
+                query.nameWords.add(term);
+            }
+        }
+        return query;
+    }
+
+    /** The name without the extension (not for the directories), in the lower case, as matched by the name words. */
+    public static String getSearchName(String fileName, boolean isDirectory) {
+        int lastDotPos = isDirectory ? -1 : fileName.lastIndexOf('.');
+        return ((lastDotPos >= 0) ? fileName.substring(0, lastDotPos) : fileName).toLowerCase();
+    }
+
+    /** The words in the lower case, as matched against {@link #getSearchName}. */
+    public List<String> getSearchWords() {
+        List<String> searchWords = new ArrayList<>(nameWords.size());
+        for (String word : nameWords) {
+            searchWords.add(word.toLowerCase());
+        }
+        return searchWords;
+    }
+
+    /** Returns true, if the search name contains all the name words. */
+    public boolean matchesName(String searchName) {
+        for (String word : getSearchWords()) {
+            if (!searchName.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean parseTaken(String value) {
+        int rangePos = value.indexOf("..");
+        Calendar[] from = parseDate((rangePos >= 0) ? value.substring(0, rangePos) : value);
+        Calendar[] to = (rangePos >= 0) ? parseDate(value.substring(rangePos + 2)) : from;
+        if ((from == null) || (to == null)) {
+            return false;
+        }
+        takenFrom = from[0].getTimeInMillis();
+        takenTo = to[1].getTimeInMillis();
+        return true;
+    }
+
+    /** Returns the start and the end (exclusive) of the day, month or year, or null. */
+    private static Calendar[] parseDate(String value) {
+        for (int i = 0; i < DATE_FORMATS.length; i++) {
+            if (value.length() != DATE_FORMATS[i].length()) {
+                continue;
+            }
+            try {
+                SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMATS[i], Locale.ROOT);
+                dateFormat.setLenient(false);
+                Calendar start = Calendar.getInstance();
+                start.setTime(dateFormat.parse(value));
+                Calendar end = (Calendar) start.clone();
+                end.add(DATE_FIELDS[i], 1);
+                return new Calendar[] {start, end};
+            }
+            catch (ParseException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private boolean parseBox(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            double latitude1 = Double.parseDouble(parts[0].trim());
+            double longitude1 = Double.parseDouble(parts[1].trim());
+            double latitude2 = Double.parseDouble(parts[2].trim());
+            double longitude2 = Double.parseDouble(parts[3].trim());
+            minLatitude = Math.min(latitude1, latitude2);
+            maxLatitude = Math.max(latitude1, latitude2);
+            minLongitude = Math.min(longitude1, longitude2);
+            maxLongitude = Math.max(longitude1, longitude2);
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /** Splits by the whitespace, except inside the double quotes, which are removed. */
+    private static List<String> splitTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        boolean isQuoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                isQuoted = !isQuoted;
+            }
+            else if (Character.isWhitespace(c) && !isQuoted) {
+                if (term.length() > 0) {
+                    terms.add(term.toString());
+                    term.setLength(0);
+                }
+            }
+            else {
+                term.append(c);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+}
@@ -27,6 +27,8 @@ import android.util.TypedValue;
 
 import com.sergenious.mediabrowser.Constants;
 import com.sergenious.mediabrowser.R;
+import com.sergenious.mediabrowser.io.JpegMetadata;
+import com.sergenious.mediabrowser.io.JpegMetadataScanner;
 import com.sergenious.mediabrowser.io.exif.ExifReader;
 import com.sergenious.mediabrowser.io.exif.ExifTag;
 import com.sergenious.mediabrowser.io.xmp.XmpReader;
@@ -37,11 +39,13 @@ import org.w3c.dom.Element;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -49,11 +53,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 
 public class MediaUtils {
 	public static final String MAPS_URL = "http://www.google.com/maps/place/";
 	private static final DateFormat TIME_FORMATTER = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
 
+	private static final long MIN_VIDEO_TIME = 24 * 3600 * 1000; // ms, the earlier video dates are the empty ones
+
 	private static final Map<String, String> IMAGE_EXTENSIONS = new HashMap<String, String>() {{
 		put("bmp", "image/bmp");
 		put("gif", "image/gif");
@@ -83,6 +90,16 @@ public class MediaUtils {
 		put(8, new float[] {1, 1, 270, 0, 1});
 	}};
 
+	private static final Collection<ExifTag> IMAGE_LOADING_EXIF_TAGS = Arrays.asList(
+		ExifTag.ORIENTATION, ExifTag.EXIF_IMAGE_WIDTH, ExifTag.EXIF_IMAGE_HEIGHT);
+
+	private static final Collection<ExifTag> MEDIA_METADATA_EXIF_TAGS = Arrays.asList(
+		ExifTag.ORIENTATION, ExifTag.EXIF_IMAGE_WIDTH, ExifTag.EXIF_IMAGE_HEIGHT,
+		ExifTag.DATETIME_ORIGINAL, ExifTag.MAKE, ExifTag.MODEL,
+		ExifTag.GPS_LATITUDE_REF, ExifTag.GPS_LATITUDE, ExifTag.GPS_LONGITUDE_REF, ExifTag.GPS_LONGITUDE);
+
+	private static final MediaFileFilter MEDIA_FILE_FILTER = new MediaFileFilter(getAllMediaExtensions());
+
 	private static Bitmap videoFrameOverlay;
 
 	public static List<String> getAllMediaExtensions() {
@@ -92,6 +109,11 @@ public class MediaUtils {
 		return extensions;
 	}
 
+	/** The filter of all the media extensions, see {@link #getAllMediaExtensions}. */
+	public static MediaFileFilter getMediaFileFilter() {
+		return MEDIA_FILE_FILTER;
+	}
+
 	public static boolean isImageExtension(String extension) {
 		return IMAGE_EXTENSIONS.containsKey(extension);
 	}
@@ -116,17 +138,42 @@ public class MediaUtils {
 			return null;
 		}
 
-		Pair<Pair<Size, Integer>, Bitmap> image = loadImage(file, maxWidth, maxHeight, maxSizeAsArea, useExifOrientation);
+		JpegMetadata metadata = scanJpegMetadata(file, IMAGE_LOADING_EXIF_TAGS);
+		Pair<Pair<Size, Integer>, Bitmap> image = loadImage(file, metadata,
+			maxWidth, maxHeight, maxSizeAsArea, useExifOrientation);
 		if ((image == null) || (image.second == null)) {
 			return null;
 		}
 
-		return new Pair<>(getImagePanoRect(file, image.first.first.getWidth(), image.first.first.getHeight()), image.second);
+		return new Pair<>(getImagePanoRect(metadata, image.first.first.getWidth(), image.first.first.getHeight()),
+			image.second);
+	}
+
+	/** Returns null, if the file is not a JPEG, or cannot be read. */
+	public static JpegMetadata scanJpegMetadata(File file, Collection<ExifTag> exifFilter) {
+		try {
+			return JpegMetadataScanner.scan(file, exifFilter);
+		}
+		catch (Exception e) {
+			Log.e(Constants.appNameInternal, "Error parsing JPEG " + file.getAbsolutePath(), e);
+			return null;
+		}
 	}
 
+	/** Decodes into a pooled bitmap, if there is one of the size. */
 	public static Bitmap loadImage(byte[] content) {
 		BitmapFactory.Options options = new BitmapFactory.Options();
-		return BitmapFactory.decodeByteArray(content, 0, content.length, options);
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(content, 0, content.length, options);
+		options.inJustDecodeBounds = false;
+		BitmapPool.getInstance().prepareOptions(options, options.outWidth, options.outHeight);
+		try {
+			return BitmapFactory.decodeByteArray(content, 0, content.length, options);
+		}
+		catch (IllegalArgumentException e) { // the pooled bitmap cannot be reused for this image
+			BitmapPool.getInstance().decodeFailed(options);
+			return BitmapFactory.decodeByteArray(content, 0, content.length, options);
+		}
 	}
 
 	public static Bitmap loadImage(File file) {
@@ -147,9 +194,14 @@ public class MediaUtils {
 		return new Size(0, 0);
 	}
 
-	public static Pair<Pair<Size, Integer>, Bitmap> loadThumbnailImage(Context context, File file, boolean useExifOrientation) {
-		Pair<Pair<Size, Integer>, Bitmap> imageInfo = loadImage(file,
-			Constants.THUMBNAIL_SIZE, Constants.THUMBNAIL_SIZE, false, useExifOrientation);
+	/** The metadata is optional, if known, the file does not need to be parsed for the size and orientation. */
+	public static Pair<Pair<Size, Integer>, Bitmap> loadThumbnailImage(Context context, File file,
+		MediaMetadata metadata, boolean useExifOrientation) {
+
+		Pair<Pair<Size, Integer>, Bitmap> imageInfo = (metadata != null)
+			? loadImage(file, metadata.getSizeAndOrientation(),
+				Constants.THUMBNAIL_SIZE, Constants.THUMBNAIL_SIZE, false, useExifOrientation)
+			: loadImage(file, Constants.THUMBNAIL_SIZE, Constants.THUMBNAIL_SIZE, false, useExifOrientation);
 
 		String extension = FileUtils.getFileExtension(file);
 		if ((imageInfo != null) && (imageInfo.second != null) && VIDEO_EXTENSIONS.containsKey(extension)) {
@@ -171,10 +223,64 @@ public class MediaUtils {
 		return imageInfo;
 	}
 
-	@SuppressWarnings("deprecation")
+	/** Returns null, if there is no embedded thumbnail, or it is smaller than the given size (of its shorter side),
+	 * has a different aspect ratio (e.g. with the black bars), or cannot be read. */
+	public static Pair<Pair<Size, Integer>, Bitmap> loadEmbeddedThumbnail(File file, MediaMetadata metadata,
+		int minSize, boolean useExifOrientation) {
+
+		if (metadata.thumbnailLength <= 0) {
+			return null;
+		}
+		byte[] thumbnailData = new byte[metadata.thumbnailLength];
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			input.seek(metadata.thumbnailOffset);
+			input.readFully(thumbnailData);
+		}
+		catch (Exception e) {
+			Log.e(Constants.appNameInternal, "Error reading EXIF thumbnail " + file.getAbsolutePath(), e);
+			return null;
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(thumbnailData, 0, thumbnailData.length, options);
+		if ((Math.min(options.outWidth, options.outHeight) < minSize) || (metadata.height <= 0) || (options.outHeight <= 0)
+			|| (Math.abs((float) options.outWidth / options.outHeight - (float) metadata.width / metadata.height) > 0.02f)) {
+
+			return null;
+		}
+
+		Bitmap bitmap = loadImage(thumbnailData);
+		if (bitmap == null) {
+			return null;
+		}
+		if (useExifOrientation) {
+			bitmap = fixImageByExifOrientation(bitmap, metadata.orientation);
+		}
+		return new Pair<>(metadata.getSizeAndOrientation(), bitmap);
+	}
+
 	public static Pair<Pair<Size, Integer>, Bitmap> loadImage(File file, int maxWidth, int maxHeight,
 		boolean maxSizeAsArea, boolean useExifOrientation) {
 
+		return loadImage(file, scanJpegMetadata(file, IMAGE_LOADING_EXIF_TAGS),
+			maxWidth, maxHeight, maxSizeAsArea, useExifOrientation);
+	}
+
+	public static Pair<Pair<Size, Integer>, Bitmap> loadImage(File file, JpegMetadata metadata,
+		int maxWidth, int maxHeight, boolean maxSizeAsArea, boolean useExifOrientation) {
+
+		Pair<Size, Integer> sizeAndOrientation = IMAGE_EXTENSIONS.containsKey(FileUtils.getFileExtension(file))
+			? getImageSizeAndOrientation(file, metadata) : null;
+		return loadImage(file, sizeAndOrientation, maxWidth, maxHeight, maxSizeAsArea, useExifOrientation);
+	}
+
+	/** The useExifOrientation copies the pixels, so it is only for the small images,
+	 * the large ones are to be oriented by {@link #fixImageMatrixByExifOrientation} at the draw time. */
+	@SuppressWarnings("deprecation")
+	public static Pair<Pair<Size, Integer>, Bitmap> loadImage(File file, Pair<Size, Integer> sizeAndOrientation,
+		int maxWidth, int maxHeight, boolean maxSizeAsArea, boolean useExifOrientation) {
+
 		String extension = FileUtils.getFileExtension(file);
 
 		if (VIDEO_EXTENSIONS.containsKey(extension)) {
@@ -183,13 +289,6 @@ public class MediaUtils {
 		}
 
 		if (IMAGE_EXTENSIONS.containsKey(extension)) {
-			Size actualSize = getImageDimensions(file);
-			Pair<Size, Integer> sizeAndOrientation = getImageExifOrientationAndSize(file);
-			if ((sizeAndOrientation == null) || !actualSize.equals(sizeAndOrientation.first)) {
-				// Android used the EXIF for the rotation
-				sizeAndOrientation = new Pair<>(actualSize, 0);
-			}
-
 			BitmapFactory.Options options = new BitmapFactory.Options();
 			options.inJustDecodeBounds = false;
 			int imgWidth = sizeAndOrientation.first.getWidth();
@@ -204,7 +303,19 @@ public class MediaUtils {
 				imgHeight >>= 1;
 			}
 
-			Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+			// the decoders round the subsampled size up
+			int sampleSize = options.inSampleSize;
+			BitmapPool.getInstance().prepareOptions(options,
+				(sizeAndOrientation.first.getWidth() + sampleSize - 1) / sampleSize,
+				(sizeAndOrientation.first.getHeight() + sampleSize - 1) / sampleSize);
+			Bitmap bitmap;
+			try {
+				bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+			}
+			catch (IllegalArgumentException e) { // the pooled bitmap cannot be reused for this image
+				BitmapPool.getInstance().decodeFailed(options);
+				bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+			}
 			if (bitmap == null) {
 				return null;
 			}
@@ -230,8 +341,12 @@ public class MediaUtils {
 	}
 
 	public static boolean isImagePano(File file) {
+		return isImagePano(scanJpegMetadata(file, IMAGE_LOADING_EXIF_TAGS));
+	}
+
+	public static boolean isImagePano(JpegMetadata metadata) {
 		try {
-			Document xmpDoc = XmpReader.extract(file);
+			Document xmpDoc = (metadata != null) ? metadata.getXmp() : null;
 			if (xmpDoc != null) {
 				Element rdfElem = XmpReader.findRDF(xmpDoc);
 				Element descElem = XmpReader.findDescription(rdfElem, XmpReader.NS_GPANO);
@@ -252,14 +367,14 @@ public class MediaUtils {
 			}
 		}
 		catch (Exception e) {
-			Log.e(Constants.appNameInternal, "Error parsing JPEG " + file.getAbsolutePath(), e);
+			Log.e(Constants.appNameInternal, "Error parsing XMP", e);
 		}
 		return false;
 	}
 
-	public static RectF getImagePanoRect(File file, int imageWidth, int imageHeight) {
+	public static RectF getImagePanoRect(JpegMetadata metadata, int imageWidth, int imageHeight) {
 		try {
-			Document xmpDoc = XmpReader.extract(file);
+			Document xmpDoc = (metadata != null) ? metadata.getXmp() : null;
 			if (xmpDoc != null) {
 				Element rdfElem = XmpReader.findRDF(xmpDoc);
 				Element descElem = XmpReader.findDescription(rdfElem, XmpReader.NS_GPANO);
@@ -291,7 +406,7 @@ public class MediaUtils {
 			}
 		}
 		catch (Exception e) {
-			Log.e(Constants.appNameInternal, "Error parsing JPEG " + file.getAbsolutePath(), e);
+			Log.e(Constants.appNameInternal, "Error parsing XMP", e);
 		}
 
 		return new RectF(
@@ -301,31 +416,107 @@ public class MediaUtils {
 			Math.min(90, (180.0f * imageHeight) / imageWidth));
 	}
 
-	public static Pair<Size, Integer> getImageExifOrientationAndSize(File file) {
-		try {
-			Map<ExifTag, Object> exifMetadata = ExifReader.extract(file,
-				Arrays.asList(ExifTag.ORIENTATION, ExifTag.EXIF_IMAGE_WIDTH, ExifTag.EXIF_IMAGE_HEIGHT));
+	/** Reads the metadata, which is cached in the {@link MetadataDatabase}. Returns null, if not a media file. */
+	public static MediaMetadata readMediaMetadata(File file) {
+		String extension = FileUtils.getFileExtension(file);
 
-			int width = getExifTagIntValue(exifMetadata, ExifTag.EXIF_IMAGE_WIDTH, 0);
-			int height = getExifTagIntValue(exifMetadata, ExifTag.EXIF_IMAGE_HEIGHT, 0);
+		if (IMAGE_EXTENSIONS.containsKey(extension)) {
+			JpegMetadata jpegMetadata = scanJpegMetadata(file, MEDIA_METADATA_EXIF_TAGS);
+			Pair<Size, Integer> sizeAndOrientation = getImageSizeAndOrientation(file, jpegMetadata);
+			int width = sizeAndOrientation.first.getWidth();
+			int height = sizeAndOrientation.first.getHeight();
+			if ((width <= 0) || (height <= 0)) {
+				return null; // not decodable
+			}
+
+			Map<ExifTag, Object> exifMetadata = (jpegMetadata != null) ? jpegMetadata.getExif() : new HashMap<>();
+			PointF gpsLocation = null;
+			try {
+				gpsLocation = ExifReader.getGpsPositionLonLat(exifMetadata);
+			}
+			catch (Exception e) {
+				Log.e(Constants.appNameInternal, "Error parsing EXIF", e);
+			}
 
-			return new Pair<>(new Size(width, height),
-				getExifTagIntValue(exifMetadata, ExifTag.ORIENTATION, 0));
+			boolean isPano = isImagePano(jpegMetadata);
+			return new MediaMetadata(width, height, sizeAndOrientation.second,
+				parseExifTime(exifMetadata.get(ExifTag.DATETIME_ORIGINAL)),
+				(gpsLocation != null) ? (double) gpsLocation.y : null,
+				(gpsLocation != null) ? (double) gpsLocation.x : null,
+				getExifTagStringValue(exifMetadata, ExifTag.MAKE),
+				getExifTagStringValue(exifMetadata, ExifTag.MODEL),
+				isPano, isPano ? getImagePanoRect(jpegMetadata, width, height) : null, 0,
+				(jpegMetadata != null) ? jpegMetadata.getThumbnailOffset() : 0,
+				(jpegMetadata != null) ? jpegMetadata.getThumbnailLength() : 0);
 		}
-		catch (Exception e) {
-			Log.e(Constants.appNameInternal, "Error parsing EXIF for " + file.getAbsolutePath(), e);
-			return null;
+
+		if (VIDEO_EXTENSIONS.containsKey(extension)) {
+			MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+			try {
+				retriever.setDataSource(file.getAbsolutePath());
+				String width = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+				String height = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+				String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+				return new MediaMetadata(
+					(width != null) ? Integer.parseInt(width) : 0, (height != null) ? Integer.parseInt(height) : 0, 0,
+					parseVideoTime(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DATE)),
+					null, null, null, null, false, null,
+					(duration != null) ? Long.parseLong(duration) / 1000.0 : 0, 0, 0);
+			}
+			catch (Exception e) {
+				Log.e(Constants.appNameInternal, "Error reading video " + file.getAbsolutePath(), e);
+			}
+			finally {
+				try {
+					retriever.release();
+				}
+				catch (Exception ignored) {
+				}
+			}
+		}
+
+		return null;
+	}
+
+	public static Pair<Size, Integer> getImageSizeAndOrientation(File file, JpegMetadata metadata) {
+		Size actualSize = ((metadata != null) && (metadata.getWidth() > 0))
+			? new Size(metadata.getWidth(), metadata.getHeight())
+			: getImageDimensions(file);
+
+		if (metadata != null) {
+			Map<ExifTag, Object> exifMetadata = metadata.getExif();
+			int width = getExifTagIntValue(exifMetadata, ExifTag.EXIF_IMAGE_WIDTH, 0);
+			int height = getExifTagIntValue(exifMetadata, ExifTag.EXIF_IMAGE_HEIGHT, 0);
+			if (actualSize.equals(new Size(width, height))) {
+				return new Pair<>(actualSize, getExifTagIntValue(exifMetadata, ExifTag.ORIENTATION, 0));
+			}
 		}
+
+		// Android used the EXIF for the rotation
+		return new Pair<>(actualSize, 0);
 	}
 
+	/** Only for the small bitmaps (thumbnails), the large images are oriented by the matrix at the draw time
+	 * (see {@link #fixImageMatrixByExifOrientation}), instead of the pixel copy.
+	 * The rotated image is drawn into a pooled bitmap, and the source bitmap is returned to the pool. */
 	public static Bitmap fixImageByExifOrientation(Bitmap bitmap, Integer exifOrientation) {
 		if (EXIF_ORIENTATION_COEFFICIENTS.containsKey(exifOrientation)) {
 			Matrix matrix = new Matrix();
 			Size sourceImageSize = new Size(bitmap.getWidth(), bitmap.getHeight());
 			Size targetImageSize = fixImageSizeByExifOrientation(sourceImageSize, exifOrientation);
 			fixImageMatrixByExifOrientation(matrix, targetImageSize, exifOrientation);
-			Bitmap newBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-			bitmap.recycle(); // not needed anymore
+
+			Bitmap newBitmap = BitmapPool.getInstance().get(targetImageSize.getWidth() * targetImageSize.getHeight() * 4);
+			if (newBitmap != null) {
+				newBitmap.reconfigure(targetImageSize.getWidth(), targetImageSize.getHeight(), Bitmap.Config.ARGB_8888);
+				newBitmap.eraseColor(0); // the transparent images
+			}
+			else {
+				newBitmap = Bitmap.createBitmap(targetImageSize.getWidth(), targetImageSize.getHeight(),
+					Bitmap.Config.ARGB_8888);
+			}
+			new Canvas(newBitmap).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+			BitmapPool.getInstance().put(bitmap); // not needed anymore
 			return newBitmap;
 		}
 		return bitmap;
@@ -419,7 +610,10 @@ public class MediaUtils {
 		metadata.put(context.getString(R.string.file_size) + ":", FileUtils.fileSizeToString(fileSize, true));
 
 		if (IMAGE_EXTENSIONS.containsKey(extension)) {
-			Size imageSize = getImageDimensions(file);
+			JpegMetadata jpegMetadata = scanJpegMetadata(file, null);
+			Size imageSize = ((jpegMetadata != null) && (jpegMetadata.getWidth() > 0))
+				? new Size(jpegMetadata.getWidth(), jpegMetadata.getHeight())
+				: getImageDimensions(file);
 			String imageSizeStr = imageSize.getWidth() + " x " + imageSize.getHeight();
 			int numPixels = imageSize.getWidth() * imageSize.getHeight();
 			if (numPixels > 1000 * 1000) {
@@ -427,7 +621,9 @@ public class MediaUtils {
 			}
 			metadata.put(context.getString(R.string.resolution) + ":", imageSizeStr);
 
-			appendExifMetadata(context, file, metadata);
+			if (jpegMetadata != null) {
+				appendExifMetadata(context, jpegMetadata.getExif(), metadata);
+			}
 		}
 
 		if (VIDEO_EXTENSIONS.containsKey(extension)) {
@@ -446,10 +642,10 @@ public class MediaUtils {
 		return metadata;
 	}
 
-	private static void appendExifMetadata(Context context, File file, Map<String, Object> metadata) {
-		try {
-			Map<ExifTag, Object> exifMetadata = ExifReader.extract(file, null);
+	private static void appendExifMetadata(Context context, Map<ExifTag, Object> exifMetadata,
+		Map<String, Object> metadata) {
 
+		try {
 			PointF gpsLocation = ExifReader.getGpsPositionLonLat(exifMetadata);
 			if (gpsLocation != null) {
 				metadata.put(context.getString(R.string.gps_location) + ":",
@@ -485,7 +681,7 @@ public class MediaUtils {
 			}
 		}
 		catch (Exception e) {
-			Log.e(Constants.appNameInternal, "Error parsing file " + file.getAbsolutePath(), e);
+			Log.e(Constants.appNameInternal, "Error parsing EXIF", e);
 
 			metadata.put(context.getString(R.string.error) + ":",
 				context.getString(R.string.error_parsing_file) + ": " + e.getMessage());
@@ -513,6 +709,39 @@ public class MediaUtils {
 		return Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY, imageGetter, tagHandler);
 	}
 
+	private static String getExifTagStringValue(Map<ExifTag, Object> exifMetadata, ExifTag tag) {
+		Object value = exifMetadata.get(tag);
+		return (value != null) ? value.toString().trim() : null;
+	}
+
+	private static long parseExifTime(Object value) {
+		if (value != null) {
+			try {
+				Date time = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.ROOT).parse(value.toString().trim());
+				return (time != null) ? time.getTime() : 0;
+			}
+			catch (Exception ignored) {
+			}
+		}
+		return 0;
+	}
+
+	/** The recording date of a video, e.g. "20240615T101530.000Z" (UTC). The containers without the date
+	 * often have the epoch of 1904 or 1970 instead, which is taken as unknown. */
+	private static long parseVideoTime(String value) {
+		if (value != null) {
+			try {
+				SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.ROOT);
+				dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+				Date time = dateFormat.parse(value.trim());
+				return ((time != null) && (time.getTime() > MIN_VIDEO_TIME)) ? time.getTime() : 0;
+			}
+			catch (Exception ignored) {
+			}
+		}
+		return 0;
+	}
+
 	private static int getExifTagIntValue(Map<ExifTag, Object> exifMetadata, ExifTag tag, int defaultValue) {
 		Number value = (Number) exifMetadata.get(tag);
 		return (value != null) ? value.intValue() : defaultValue;
@@ -0,0 +1,244 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.sergenious.mediabrowser.Constants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Cache of the media metadata, so browsing and viewing does not need to parse the media files again.
+ * The entries are valid only as long as the file size and the modification time are the same. */
+public class MetadataDatabase extends SQLiteOpenHelper {
+    private static final String DB_NAME = "metadata";
+    private static final String FILE_PATH = "file";
+    private static final String FILE_SIZE = "size";
+    private static final String FILE_TIME = "mtime";
+    private static final String WIDTH = "width";
+    private static final String HEIGHT = "height";
+    private static final String ORIENTATION = "orientation";
+    private static final String CAPTURE_TIME = "capture_time";
+    private static final String LATITUDE = "latitude";
+    private static final String LONGITUDE = "longitude";
+    private static final String MAKE = "make";
+    private static final String MODEL = "model";
+    private static final String IS_PANO = "pano";
+    private static final String PANO_LEFT = "pano_left";
+    private static final String PANO_TOP = "pano_top";
+    private static final String PANO_RIGHT = "pano_right";
+    private static final String PANO_BOTTOM = "pano_bottom";
+    private static final String DURATION = "duration";
+    private static final String THUMBNAIL_OFFSET = "thumb_offset";
+    private static final String THUMBNAIL_LENGTH = "thumb_length";
+    private static final int MAX_BATCH_SIZE = 500; // below the SQLite limit of the query arguments
+
+    private static final String[] METADATA_COLUMNS = {WIDTH, HEIGHT, ORIENTATION, CAPTURE_TIME,
+        LATITUDE, LONGITUDE, MAKE, MODEL, IS_PANO, PANO_LEFT, PANO_TOP, PANO_RIGHT, PANO_BOTTOM, DURATION,
+        THUMBNAIL_OFFSET, THUMBNAIL_LENGTH};
+
+    private static MetadataDatabase instance;
+
+    private final SQLiteDatabase db;
+
+    public static synchronized MetadataDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new MetadataDatabase(context);
+        }
+        return instance;
+    }
+
+    private MetadataDatabase(Context context) {
+        super(context, DB_NAME, null, 3);
+        setWriteAheadLoggingEnabled(true);
+        db = getWritableDatabase();
+    }
+
+    /** Returns the cached metadata, or reads it from the file and caches it, if not cached or outdated. */
+    public MediaMetadata getMetadata(File file) {
+        String filePath = file.getAbsolutePath();
+        long fileSize = file.length();
+        long fileTime = file.lastModified();
+
+        MediaMetadata metadata = loadMetadata(filePath, fileSize, fileTime);
+        if (metadata == null) {
+            metadata = MediaUtils.readMediaMetadata(file);
+            if (metadata != null) {
+                saveMetadata(filePath, fileSize, fileTime, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /** Returns the metadata of the media files by the files, the same as {@link #getMetadata(File)} per file,
+     * but the cached entries are looked up by the batches, the missing ones are read and saved together. */
+    public Map<File, MediaMetadata> getMetadata(Collection<File> files) {
+        Map<File, MediaMetadata> metadataByFile = new HashMap<>();
+        List<File> batch = new ArrayList<>();
+        for (File file : files) {
+            batch.add(file);
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                getMetadataBatch(batch, metadataByFile);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            getMetadataBatch(batch, metadataByFile);
+        }
+        return metadataByFile;
+    }
+
+    public MediaMetadata loadMetadata(String filePath, long fileSize, long fileTime) {
+        String condition = FILE_PATH + "=? AND " + FILE_SIZE + "=? AND " + FILE_TIME + "=?";
+        try (Cursor cursor = db.query(DB_NAME, METADATA_COLUMNS, condition,
+            new String[] {filePath, Long.toString(fileSize), Long.toString(fileTime)}, null, null, null)) {
+
+            if ((cursor != null) && cursor.moveToNext()) {
+                return readMetadata(cursor, 0);
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+        return null;
+    }
+
+    public void saveMetadata(String filePath, long fileSize, long fileTime, MediaMetadata metadata) {
+        try {
+            ContentValues contentValue = new ContentValues();
+            contentValue.put(FILE_PATH, filePath);
+            contentValue.put(FILE_SIZE, fileSize);
+            contentValue.put(FILE_TIME, fileTime);
+            contentValue.put(WIDTH, metadata.width);
+            contentValue.put(HEIGHT, metadata.height);
+            contentValue.put(ORIENTATION, metadata.orientation);
+            contentValue.put(CAPTURE_TIME, metadata.captureTime);
+            contentValue.put(LATITUDE, metadata.latitude);
+            contentValue.put(LONGITUDE, metadata.longitude);
+            contentValue.put(MAKE, metadata.make);
+            contentValue.put(MODEL, metadata.model);
+            contentValue.put(IS_PANO, metadata.isPano ? 1 : 0);
+            if (metadata.panoRect != null) {
+                contentValue.put(PANO_LEFT, metadata.panoRect.left);
+                contentValue.put(PANO_TOP, metadata.panoRect.top);
+                contentValue.put(PANO_RIGHT, metadata.panoRect.right);
+                contentValue.put(PANO_BOTTOM, metadata.panoRect.bottom);
+            }
+            contentValue.put(DURATION, metadata.duration);
+            contentValue.put(THUMBNAIL_OFFSET, metadata.thumbnailOffset);
+            contentValue.put(THUMBNAIL_LENGTH, metadata.thumbnailLength);
+            db.insertWithOnConflict(DB_NAME, null, contentValue, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+    }
+
+    private void getMetadataBatch(List<File> files, Map<File, MediaMetadata> metadataByFile) {
+        Map<String, File> filesByPath = new HashMap<>();
+        StringBuilder condition = new StringBuilder(FILE_PATH + " IN (");
+        for (int i = 0; i < files.size(); i++) {
+            filesByPath.put(files.get(i).getAbsolutePath(), files.get(i));
+            condition.append((i > 0) ? ",?" : "?");
+        }
+        condition.append(")");
+
+        String[] columns = new String[METADATA_COLUMNS.length + 3];
+        columns[0] = FILE_PATH;
+        columns[1] = FILE_SIZE;
+        columns[2] = FILE_TIME;
+        System.arraycopy(METADATA_COLUMNS, 0, columns, 3, METADATA_COLUMNS.length);
+
+        try (Cursor cursor = db.query(DB_NAME, columns, condition.toString(),
+            filesByPath.keySet().toArray(new String[0]), null, null, null)) {
+
+            while ((cursor != null) && cursor.moveToNext()) {
+                File file = filesByPath.get(cursor.getString(0));
+                if ((file != null) && (cursor.getLong(1) == file.length()) && (cursor.getLong(2) == file.lastModified())) {
+                    metadataByFile.put(file, readMetadata(cursor, 3));
+                }
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+
+        // the missing ones are read first, so the files are not parsed within the transaction
+        Map<File, MediaMetadata> readMetadataByFile = new HashMap<>();
+        for (File file : files) {
+            if (!metadataByFile.containsKey(file)) {
+                try {
+                    MediaMetadata metadata = MediaUtils.readMediaMetadata(file);
+                    if (metadata != null) {
+                        readMetadataByFile.put(file, metadata);
+                    }
+                }
+                catch (Exception e) {
+                    Log.e(Constants.appNameInternal, "Error reading metadata of " + file.getAbsolutePath(), e);
+                }
+            }
+        }
+        if (readMetadataByFile.isEmpty()) {
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            for (Map.Entry<File, MediaMetadata> metadataEntry : readMetadataByFile.entrySet()) {
+                File file = metadataEntry.getKey();
+                saveMetadata(file.getAbsolutePath(), file.length(), file.lastModified(), metadataEntry.getValue());
+            }
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+        metadataByFile.putAll(readMetadataByFile);
+    }
+
+    /** Reads the {@link #METADATA_COLUMNS} starting at the given column. */
+    private static MediaMetadata readMetadata(Cursor cursor, int firstColumn) {
+        int c = firstColumn;
+        boolean isPano = cursor.getInt(c + 8) != 0;
+        return new MediaMetadata(cursor.getInt(c), cursor.getInt(c + 1), cursor.getInt(c + 2), cursor.getLong(c + 3),
+            cursor.isNull(c + 4) ? null : cursor.getDouble(c + 4),
+            cursor.isNull(c + 5) ? null : cursor.getDouble(c + 5),
+            cursor.getString(c + 6), cursor.getString(c + 7), isPano,
+            isPano ? new RectF(cursor.getFloat(c + 9), cursor.getFloat(c + 10), cursor.getFloat(c + 11),
+                cursor.getFloat(c + 12)) : null,
+            cursor.getDouble(c + 13), cursor.getLong(c + 14), cursor.getInt(c + 15));
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("create table " + DB_NAME + "(" + FILE_PATH + " TEXT PRIMARY KEY NOT NULL, "
+            + FILE_SIZE + " int NOT NULL, " + FILE_TIME + " int NOT NULL, "
+            + WIDTH + " int, " + HEIGHT + " int, " + ORIENTATION + " int, " + CAPTURE_TIME + " int, "
+            + LATITUDE + " real, " + LONGITUDE + " real, " + MAKE + " TEXT, " + MODEL + " TEXT, "
+            + IS_PANO + " int, " + PANO_LEFT + " real, " + PANO_TOP + " real, "
+            + PANO_RIGHT + " real, " + PANO_BOTTOM + " real, " + DURATION + " real, "
+            + THUMBNAIL_OFFSET + " int NOT NULL DEFAULT 0, " + THUMBNAIL_LENGTH + " int NOT NULL DEFAULT 0);");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // the existing entries are without the embedded thumbnail, so they just don't use it
+            db.execSQL("alter table " + DB_NAME + " add column " + THUMBNAIL_OFFSET + " int NOT NULL DEFAULT 0;");
+            db.execSQL("alter table " + DB_NAME + " add column " + THUMBNAIL_LENGTH + " int NOT NULL DEFAULT 0;");
+        }
+        if (oldVersion < 3) {
+            // the videos (the only ones with the duration) were cached without the capture time, so they are read again
+            db.execSQL("delete from " + DB_NAME + " where " + DURATION + ">0;");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/** 64-bit difference hash (dHash) of an image: the luminance is averaged in a 9x8 grid, and each bit tells,
+ * whether the luminance increases to the next cell in the row. The similar images have the hashes
+ * with a small Hamming distance, regardless of their size, compression and small changes of the exposure. */
+public class PerceptualHash {
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    /** The cells are averaged over all the pixels (not sampled by a scaling), so the hash is stable for the thumbnails
+     * of the different sizes. */
+    public static long dHash(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width];
+        long[] cellSums = new long[GRID_WIDTH * GRID_HEIGHT];
+        int[] cellCounts = new int[GRID_WIDTH * GRID_HEIGHT];
+
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+            int rowOffset = (y * GRID_HEIGHT / height) * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[x];
+                int cell = rowOffset + x * GRID_WIDTH / width;
+                cellSums[cell] += 299 * Color.red(pixel) + 587 * Color.green(pixel) + 114 * Color.blue(pixel);
+                cellCounts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < GRID_HEIGHT; row++) {
+            for (int column = 0; column < GRID_WIDTH - 1; column++) {
+                int cell = row * GRID_WIDTH + column;
+                // compared as the fractions, to avoid the division
+                boolean isIncreasing = cellSums[cell] * cellCounts[cell + 1] < cellSums[cell + 1] * cellCounts[cell];
+                hash = (hash << 1) | (isIncreasing ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
@@ -0,0 +1,18 @@
+package com.sergenious.mediabrowser.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Throttles the progress updates from the many threads, the UI would not show them more often anyway:
+ * an update is due at most once per interval, and only to one of the threads asking at the same time. */
+public class ProgressThrottle {
+    private static final long UPDATE_INTERVAL = 100; // ms
+
+    private final AtomicLong lastUpdateTime = new AtomicLong();
+
+    /** Returns true, if the caller is to make the progress update now. */
+    public boolean isUpdateDue() {
+        long currentTime = System.currentTimeMillis();
+        long lastTime = lastUpdateTime.get();
+        return (currentTime - lastTime >= UPDATE_INTERVAL) && lastUpdateTime.compareAndSet(lastTime, currentTime);
+    }
+}
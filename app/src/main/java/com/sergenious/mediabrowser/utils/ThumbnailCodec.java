@@ -0,0 +1,49 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/** Encoding of the thumbnails in the DB, the code is stored with each thumbnail, so the format can be changed. */
+public enum ThumbnailCodec {
+    PNG(0),
+    JPEG(1),
+    WEBP(2);
+
+    private final int code;
+
+    ThumbnailCodec(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    @SuppressWarnings("deprecation")
+    public Bitmap.CompressFormat getCompressFormat() {
+        switch (this) {
+            case JPEG: return Bitmap.CompressFormat.JPEG;
+            case WEBP: return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+            default: return Bitmap.CompressFormat.PNG;
+        }
+    }
+
+    /** The quality is ignored by the lossless PNG. */
+    public byte[] encode(Bitmap bitmap, int quality) {
+        return MediaUtils.writeImage(bitmap, getCompressFormat(), (this == PNG) ? 100 : quality);
+    }
+
+    public Bitmap decode(byte[] data) {
+        return MediaUtils.loadImage(data);
+    }
+
+    public static ThumbnailCodec fromCode(int code) {
+        for (ThumbnailCodec codec : values()) {
+            if (codec.code == code) {
+                return codec;
+            }
+        }
+        return PNG;
+    }
+}
@@ -0,0 +1,78 @@
+package com.sergenious.mediabrowser.utils;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+
+/** Process-wide cache of the decoded thumbnails, limited by the bitmap memory, in front of the {@link ThumbnailsDatabase}.
+ * The thumbnails are kept by the file paths, with the modification times of the files, which the callers pass in,
+ * so a lookup does not stat the file: the grid knows the times from the listing, the loading threads stat the files. */
+public class ThumbnailMemoryCache {
+    private static final int MAX_MEMORY_FRACTION = 8; // of the maximum heap size
+
+    private static ThumbnailMemoryCache instance;
+
+    private final LruCache<String, Entry> cache;
+
+    private static class Entry {
+        final Bitmap thumbnail;
+        final long fileTime;
+        final boolean isLowResolution; // not of the full thumbnail size
+
+        Entry(Bitmap thumbnail, long fileTime, boolean isLowResolution) {
+            this.thumbnail = thumbnail;
+            this.fileTime = fileTime;
+            this.isLowResolution = isLowResolution;
+        }
+    }
+
+    public static synchronized ThumbnailMemoryCache getInstance() {
+        if (instance == null) {
+            instance = new ThumbnailMemoryCache((int) (Runtime.getRuntime().maxMemory() / MAX_MEMORY_FRACTION));
+        }
+        return instance;
+    }
+
+    private ThumbnailMemoryCache(int maxBytes) {
+        cache = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.thumbnail.getAllocationByteCount();
+            }
+        };
+    }
+
+    /** Returns null, if there is no thumbnail of the file with the given modification time (0 is unknown). */
+    public Bitmap get(File file, long fileTime) {
+        Entry entry = cache.get(file.getAbsolutePath());
+        return ((entry != null) && (fileTime != 0) && (entry.fileTime == fileTime)) ? entry.thumbnail : null;
+    }
+
+    public void put(File file, long fileTime, Bitmap thumbnail) {
+        cache.put(file.getAbsolutePath(), new Entry(thumbnail, fileTime, false));
+    }
+
+    /** The thumbnail only good enough for the current grid column width (e.g. the embedded EXIF one),
+     * to be replaced by the full one, when the grid is zoomed in. */
+    public void putLowResolution(File file, long fileTime, Bitmap thumbnail) {
+        cache.put(file.getAbsolutePath(), new Entry(thumbnail, fileTime, true));
+    }
+
+    public boolean isLowResolution(File file) {
+        Entry entry = cache.get(file.getAbsolutePath());
+        return (entry != null) && entry.isLowResolution;
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+}
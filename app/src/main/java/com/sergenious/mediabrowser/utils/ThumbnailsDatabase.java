@@ -10,39 +10,55 @@ import android.util.Log;
 
 import com.sergenious.mediabrowser.Constants;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class ThumbnailsDatabase extends SQLiteOpenHelper {
     private static final String DB_NAME = "thumbs";
+    private static final int DB_VERSION = 4;
     private static final String FILE_PATH = "file";
     private static final String FILE_SIZE = "size";
+    private static final String FILE_TIME = "mtime";
     private static final String THUMBNAIL = "thumbnail";
+    private static final String FORMAT = "format";
+    private static final String PERCEPTUAL_HASH = "phash"; // computed from the thumbnail, when first needed
+    private static final int MAX_BATCH_SIZE = 500; // below the SQLite limit of the query arguments
 
     private static ThumbnailsDatabase instance;
 
-    private final String createTableSql;
     private final SQLiteDatabase db;
+    private final ThumbnailCodec codec;
+    private final int quality;
 
-    public static ThumbnailsDatabase getInstance(Context context) {
+    public static synchronized ThumbnailsDatabase getInstance(Context context) {
         if (instance == null) {
-            instance = new ThumbnailsDatabase(context);
+            instance = new ThumbnailsDatabase(context, Constants.THUMBNAIL_CODEC, Constants.THUMBNAIL_QUALITY);
         }
         return instance;
     }
 
-    private ThumbnailsDatabase(Context context) {
-        super(context, DB_NAME, null, 1);
-        createTableSql = "create table " + DB_NAME + "(" + FILE_PATH + " TEXT NOT NULL, "
-            + FILE_SIZE + " int NOT NULL, " + THUMBNAIL + " BLOB);";
+    /** The codec and the quality are used for the saved thumbnails, the loaded ones are decoded by their stored codec. */
+    private ThumbnailsDatabase(Context context, ThumbnailCodec codec, int quality) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.codec = codec;
+        this.quality = quality;
+        setWriteAheadLoggingEnabled(true);
         db = getWritableDatabase();
     }
 
-    public Bitmap loadThumbnail(String filePath, long fileSize) {
-        String condition = FILE_PATH + "=? AND " + FILE_SIZE + "=?";
-        try (Cursor cursor = db.query(DB_NAME, new String[] {THUMBNAIL}, condition,
-            new String[] {filePath, Long.toString(fileSize)}, null, null, null)) {
+    /** The modification time 0 in the DB means unknown (migrated from the old version), so only the size is checked. */
+    public Bitmap loadThumbnail(String filePath, long fileSize, long fileTime) {
+        String condition = FILE_PATH + "=? AND " + FILE_SIZE + "=? AND (" + FILE_TIME + "=? OR " + FILE_TIME + "=0)";
+        try (Cursor cursor = db.query(DB_NAME, new String[] {THUMBNAIL, FORMAT}, condition,
+            new String[] {filePath, Long.toString(fileSize), Long.toString(fileTime)}, null, null, null)) {
 
             if (cursor != null) {
                 if (cursor.moveToNext()) {
-                    return MediaUtils.loadImage(cursor.getBlob(0));
+                    return ThumbnailCodec.fromCode(cursor.getInt(1)).decode(cursor.getBlob(0));
                 }
             }
         }
@@ -52,15 +68,117 @@ public class ThumbnailsDatabase extends SQLiteOpenHelper {
         return null;
     }
 
-    public void saveThumbnail(String filePath, long fileSize, Bitmap bitmap) {
+    /** Loads the thumbnails of the files, which are still valid (the same size and modification time),
+     * with a single query for up to a few hundreds of files. The missing thumbnails are not in the returned map. */
+    public Map<String, Bitmap> loadThumbnails(Collection<String> filePaths) {
+        Map<String, Bitmap> thumbnails = new HashMap<>();
+        List<String> batch = new ArrayList<>();
+        for (String filePath : filePaths) {
+            batch.add(filePath);
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                loadThumbnailsBatch(batch, thumbnails);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadThumbnailsBatch(batch, thumbnails);
+        }
+        return thumbnails;
+    }
+
+    private void loadThumbnailsBatch(List<String> filePaths, Map<String, Bitmap> thumbnails) {
+        StringBuilder condition = new StringBuilder(FILE_PATH + " IN (");
+        for (int i = 0; i < filePaths.size(); i++) {
+            condition.append((i > 0) ? ",?" : "?");
+        }
+        condition.append(")");
+
+        try (Cursor cursor = db.query(DB_NAME, new String[] {FILE_PATH, FILE_SIZE, FILE_TIME, THUMBNAIL, FORMAT},
+            condition.toString(), filePaths.toArray(new String[0]), null, null, null)) {
+
+            while ((cursor != null) && cursor.moveToNext()) {
+                String filePath = cursor.getString(0);
+                File file = new File(filePath);
+                long fileTime = cursor.getLong(2);
+                if ((cursor.getLong(1) == file.length()) && ((fileTime == 0) || (fileTime == file.lastModified()))) {
+                    Bitmap thumbnail = ThumbnailCodec.fromCode(cursor.getInt(4)).decode(cursor.getBlob(3));
+                    if (thumbnail != null) {
+                        thumbnails.put(filePath, thumbnail);
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+    }
+
+    /** Returns the perceptual hashes of the files with the valid thumbnails, by the file paths. The missing hashes
+     * are computed from the thumbnails, and saved, so the thumbnails are decoded only once. */
+    public Map<String, Long> loadPerceptualHashes(Collection<String> filePaths) {
+        Map<String, Long> hashes = new HashMap<>();
+        List<String> batch = new ArrayList<>();
+        for (String filePath : filePaths) {
+            batch.add(filePath);
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                loadPerceptualHashesBatch(batch, hashes);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadPerceptualHashesBatch(batch, hashes);
+        }
+        return hashes;
+    }
+
+    private void loadPerceptualHashesBatch(List<String> filePaths, Map<String, Long> hashes) {
+        StringBuilder condition = new StringBuilder(FILE_PATH + " IN (");
+        for (int i = 0; i < filePaths.size(); i++) {
+            condition.append((i > 0) ? ",?" : "?");
+        }
+        condition.append(")");
+
+        // the thumbnails are read only for the rows without the hash
+        Map<String, Long> computedHashes = new HashMap<>();
+        try (Cursor cursor = db.query(DB_NAME, new String[] {FILE_PATH, FILE_SIZE, FILE_TIME, PERCEPTUAL_HASH, FORMAT,
+                "CASE WHEN " + PERCEPTUAL_HASH + " IS NULL THEN " + THUMBNAIL + " END"},
+            condition.toString(), filePaths.toArray(new String[0]), null, null, null)) {
+
+            while ((cursor != null) && cursor.moveToNext()) {
+                String filePath = cursor.getString(0);
+                File file = new File(filePath);
+                long fileTime = cursor.getLong(2);
+                if ((cursor.getLong(1) != file.length()) || ((fileTime != 0) && (fileTime != file.lastModified()))) {
+                    continue;
+                }
+                if (!cursor.isNull(3)) {
+                    hashes.put(filePath, cursor.getLong(3));
+                }
+                else if (!cursor.isNull(5)) {
+                    Bitmap thumbnail = ThumbnailCodec.fromCode(cursor.getInt(4)).decode(cursor.getBlob(5));
+                    if (thumbnail != null) {
+                        long hash = PerceptualHash.dHash(thumbnail);
+                        BitmapPool.getInstance().put(thumbnail); // reused by the next decoding
+                        hashes.put(filePath, hash);
+                        computedHashes.put(filePath, hash);
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error reading from DB", e);
+        }
+
+        if (computedHashes.isEmpty()) {
+            return;
+        }
         db.beginTransaction();
         try {
-            db.delete(DB_NAME, FILE_PATH + "=?", new String[] {filePath});
-            ContentValues contentValue = new ContentValues();
-            contentValue.put(FILE_PATH, filePath);
-            contentValue.put(FILE_SIZE, fileSize);
-            contentValue.put(THUMBNAIL, MediaUtils.writeImage(bitmap, Bitmap.CompressFormat.PNG, 100));
-            db.insertOrThrow(DB_NAME, null, contentValue);
+            for (Map.Entry<String, Long> hashEntry : computedHashes.entrySet()) {
+                ContentValues contentValue = new ContentValues();
+                contentValue.put(PERCEPTUAL_HASH, hashEntry.getValue());
+                db.update(DB_NAME, contentValue, FILE_PATH + "=?", new String[] {hashEntry.getKey()});
+            }
             db.setTransactionSuccessful();
         }
         catch (Exception e) {
@@ -71,12 +189,54 @@ public class ThumbnailsDatabase extends SQLiteOpenHelper {
         }
     }
 
+    /** The perceptual hash of the replaced thumbnail is cleared, so it is computed again. */
+    public void saveThumbnail(String filePath, long fileSize, long fileTime, Bitmap bitmap) {
+        try {
+            ContentValues contentValue = new ContentValues();
+            contentValue.put(FILE_PATH, filePath);
+            contentValue.put(FILE_SIZE, fileSize);
+            contentValue.put(FILE_TIME, fileTime);
+            contentValue.put(THUMBNAIL, codec.encode(bitmap, quality));
+            contentValue.put(FORMAT, codec.getCode());
+            db.insertWithOnConflict(DB_NAME, null, contentValue, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        catch (Exception e) {
+            Log.e(Constants.appNameInternal, "Error writing to DB", e);
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(createTableSql);
+        db.execSQL(getCreateTableSql(DB_NAME));
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // v1 had no primary key, no modification time and only PNG, the latest row of each file is kept
+            // (onUpgrade is already called within a transaction)
+            db.execSQL(getCreateTableSql(DB_NAME + "_v2"));
+            db.execSQL("insert or replace into " + DB_NAME + "_v2 (" + FILE_PATH + ", " + FILE_SIZE + ", "
+                + FILE_TIME + ", " + THUMBNAIL + ") select " + FILE_PATH + ", " + FILE_SIZE + ", 0, "
+                + THUMBNAIL + " from " + DB_NAME + " order by rowid;");
+            db.execSQL("drop table " + DB_NAME + ";");
+            db.execSQL("alter table " + DB_NAME + "_v2 rename to " + DB_NAME + ";");
+        }
+        else {
+            if (oldVersion < 3) {
+                // the existing thumbnails are PNG
+                db.execSQL("alter table " + DB_NAME + " add column " + FORMAT + " int NOT NULL DEFAULT "
+                    + ThumbnailCodec.PNG.getCode() + ";");
+            }
+            if (oldVersion < 4) {
+                db.execSQL("alter table " + DB_NAME + " add column " + PERCEPTUAL_HASH + " int;");
+            }
+        }
+    }
+
+    private static String getCreateTableSql(String tableName) {
+        return "create table " + tableName + "(" + FILE_PATH + " TEXT PRIMARY KEY NOT NULL, "
+            + FILE_SIZE + " int NOT NULL, " + FILE_TIME + " int NOT NULL, " + THUMBNAIL + " BLOB, "
+            + FORMAT + " int NOT NULL DEFAULT " + ThumbnailCodec.PNG.getCode() + ", " + PERCEPTUAL_HASH + " int);";
     }
 }
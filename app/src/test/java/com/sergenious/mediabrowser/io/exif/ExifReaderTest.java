@@ -0,0 +1,120 @@
+package com.sergenious.mediabrowser.io.exif;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+public class ExifReaderTest {
+	private static final int ASCII = 2;
+	private static final int SHORT = 3;
+	private static final int LONG = 4;
+	private static final int RATIONAL = 5;
+
+	private static final int IFD0_OFFSET = 8;
+	private static final int MAKE_OFFSET = 62; // after the 4 entries of IFD0
+	private static final int EXIF_IFD_OFFSET = 68;
+	private static final int DATETIME_OFFSET = 86;
+	private static final int GPS_IFD_OFFSET = 106;
+	private static final int LATITUDE_OFFSET = 136;
+	private static final int SEGMENT_SIZE = 160;
+
+	@Test
+	public void parsesIntelByteOrder() throws IOException {
+		assertSampleTags(ExifReader.parse(createSegment(ByteOrder.LITTLE_ENDIAN, EXIF_IFD_OFFSET), null));
+	}
+
+	@Test
+	public void parsesMotorolaByteOrder() throws IOException {
+		assertSampleTags(ExifReader.parse(createSegment(ByteOrder.BIG_ENDIAN, EXIF_IFD_OFFSET), null));
+	}
+
+	@Test
+	public void keepsTagsOfOtherIfdsWithInvalidSubIfdOffset() throws IOException {
+		Map<ExifTag, Object> tags = ExifReader.parse(createSegment(ByteOrder.LITTLE_ENDIAN, 100000), null);
+
+		assertEquals(6, tags.get(ExifTag.ORIENTATION));
+		assertEquals("Canon", tags.get(ExifTag.MAKE));
+		assertEquals("N", tags.get(ExifTag.GPS_LATITUDE_REF));
+		assertFalse(tags.containsKey(ExifTag.DATETIME_ORIGINAL));
+	}
+
+	@Test
+	public void parsesOnlyFilteredTags() throws IOException {
+		Map<ExifTag, Object> tags = ExifReader.parse(createSegment(ByteOrder.BIG_ENDIAN, EXIF_IFD_OFFSET),
+			Collections.singletonList(ExifTag.DATETIME_ORIGINAL));
+
+		assertEquals(1, tags.size());
+		assertEquals("2024:05:06 07:08:09", tags.get(ExifTag.DATETIME_ORIGINAL));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedHeader() throws IOException {
+		ExifReader.parse(new byte[] {0x49, 0x49, 0x2a, 0x00}, null);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsInvalidIfd0Offset() throws IOException {
+		byte[] segment = createSegment(ByteOrder.LITTLE_ENDIAN, EXIF_IFD_OFFSET);
+		ByteBuffer.wrap(segment).order(ByteOrder.LITTLE_ENDIAN).putInt(4, SEGMENT_SIZE);
+		ExifReader.parse(segment, null);
+	}
+
+	private static void assertSampleTags(Map<ExifTag, Object> tags) {
+		assertEquals(6, tags.get(ExifTag.ORIENTATION));
+		assertEquals("Canon", tags.get(ExifTag.MAKE));
+		assertEquals("2024:05:06 07:08:09", tags.get(ExifTag.DATETIME_ORIGINAL));
+		assertEquals("N", tags.get(ExifTag.GPS_LATITUDE_REF));
+		assertTrue(tags.get(ExifTag.GPS_LATITUDE) instanceof ExifDegree);
+		assertEquals(46.0525, ((ExifDegree) tags.get(ExifTag.GPS_LATITUDE)).getDMS(), 1e-9);
+	}
+
+	/** IFD0 with the make, the orientation and the pointers to the EXIF IFD (with the original time)
+	 * and the GPS IFD (with the latitude). */
+	private static byte[] createSegment(ByteOrder order, int exifIfdOffset) {
+		ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE).order(order);
+		buffer.put((byte) ((order == ByteOrder.LITTLE_ENDIAN) ? 'I' : 'M'));
+		buffer.put((byte) ((order == ByteOrder.LITTLE_ENDIAN) ? 'I' : 'M'));
+		buffer.putShort((short) 0x2a);
+		buffer.putInt(IFD0_OFFSET);
+
+		buffer.putShort((short) 4);
+		putEntry(buffer, 0x010f, ASCII, 6, MAKE_OFFSET);
+		putShortEntry(buffer, 0x0112, 6);
+		putEntry(buffer, 0x8769, LONG, 1, exifIfdOffset);
+		putEntry(buffer, 0x8825, LONG, 1, GPS_IFD_OFFSET);
+		buffer.putInt(0); // no IFD1
+		buffer.put("Canon\0".getBytes(StandardCharsets.US_ASCII));
+
+		buffer.position(EXIF_IFD_OFFSET);
+		buffer.putShort((short) 1);
+		putEntry(buffer, 0x9003, ASCII, 20, DATETIME_OFFSET);
+		buffer.putInt(0);
+		buffer.put("2024:05:06 07:08:09\0".getBytes(StandardCharsets.US_ASCII));
+
+		buffer.position(GPS_IFD_OFFSET);
+		buffer.putShort((short) 2);
+		buffer.putShort((short) 0x0001).putShort((short) ASCII).putInt(2).put(new byte[] {'N', 0, 0, 0});
+		putEntry(buffer, 0x0002, RATIONAL, 3, LATITUDE_OFFSET);
+		buffer.putInt(0);
+		buffer.putInt(46).putInt(1).putInt(3).putInt(1).putInt(9).putInt(1); // 46 3' 9"
+		return buffer.array();
+	}
+
+	private static void putEntry(ByteBuffer buffer, int tag, int type, int count, int value) {
+		buffer.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+	}
+
+	/** The short value is in the first 2 bytes of the value field. */
+	private static void putShortEntry(ByteBuffer buffer, int tag, int value) {
+		buffer.putShort((short) tag).putShort((short) SHORT).putInt(1).putShort((short) value).putShort((short) 0);
+	}
+}
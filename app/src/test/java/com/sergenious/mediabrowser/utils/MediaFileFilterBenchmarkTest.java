@@ -0,0 +1,65 @@
+package com.sergenious.mediabrowser.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/** Compares the time of MediaFileFilter with the old regex filter, on the names of a large directory
+ * of mostly non-media files. The times are printed, only the equal results are asserted,
+ * as the times depend on the machine. */
+public class MediaFileFilterBenchmarkTest {
+    private static final int NAME_COUNT = 200000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final String[] OTHER_EXTENSIONS = {"txt", "json", "xmp", "thm", "db", "tmp", "log"};
+
+    @Test
+    public void benchmarkAgainstRegex() {
+        String[] names = createNames();
+        MediaFileFilter filter = new MediaFileFilter(MediaFileFilterTest.EXTENSIONS);
+        Pattern regex = MediaFileFilterTest.createOldRegex(MediaFileFilterTest.EXTENSIONS);
+
+        int filterCount = 0;
+        int regexCount = 0;
+        long filterNanos = 0;
+        long regexNanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            filterCount = 0;
+            for (String name : names) {
+                filterCount += filter.accept(name) ? 1 : 0;
+            }
+            long filterTime = System.nanoTime();
+            regexCount = 0;
+            for (String name : names) {
+                regexCount += regex.matcher(name.toLowerCase()).matches() ? 1 : 0;
+            }
+            long regexTime = System.nanoTime();
+
+            if (round >= WARMUP_ROUNDS) {
+                filterNanos += filterTime - startTime;
+                regexNanos += regexTime - filterTime;
+            }
+        }
+
+        System.out.printf("%d names: filter %.2f ms, regex %.2f ms%n", names.length,
+            filterNanos / 1e6 / MEASURED_ROUNDS, regexNanos / 1e6 / MEASURED_ROUNDS);
+        assertEquals(regexCount, filterCount);
+    }
+
+    /** A tenth of the names are of the media files. */
+    private static String[] createNames() {
+        Random random = new Random(1);
+        String[] names = new String[NAME_COUNT];
+        for (int i = 0; i < NAME_COUNT; i++) {
+            String extension = (random.nextInt(10) == 0)
+                ? MediaFileFilterTest.EXTENSIONS.get(random.nextInt(MediaFileFilterTest.EXTENSIONS.size()))
+                : OTHER_EXTENSIONS[random.nextInt(OTHER_EXTENSIONS.length)];
+            names[i] = "IMG_" + random.nextInt(100000) + (random.nextBoolean() ? ".backup." : ".") + extension;
+        }
+        return names;
+    }
+}
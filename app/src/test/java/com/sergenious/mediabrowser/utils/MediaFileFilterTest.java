@@ -0,0 +1,60 @@
+package com.sergenious.mediabrowser.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class MediaFileFilterTest {
+    static final List<String> EXTENSIONS = Arrays.asList("jpg", "jpeg", "png", "webp", "mp4", "3gp", "mkv");
+
+    private static final String[] EDGE_CASE_NAMES = {
+        "photo.jpg", "photo.JPG", "Photo.JpEg", "a.png", ".jpg", ".JPG", "..jpg", "photo.", "photo", "",
+        "photo.jpg.", "photo.jpg.txt", "photo.txt.jpg", "archive.tar.mp4", "photo.jpgx", "photo.xjpg", "photo.jp",
+        "a.b.c.webp", "movie.3GP", "movie.3gpp", "photo.j.pg", "jpg", "mkv.", "x.MKV",
+    };
+
+    private final MediaFileFilter filter = new MediaFileFilter(EXTENSIONS);
+
+    @Test
+    public void acceptsMediaExtensionsInAnyCase() {
+        assertTrue(filter.accept("photo.jpg"));
+        assertTrue(filter.accept("Photo.JpEg"));
+        assertTrue(filter.accept("movie.3GP"));
+    }
+
+    @Test
+    public void usesExtensionAfterLastDot() {
+        assertTrue(filter.accept("photo.txt.jpg"));
+        assertTrue(filter.accept("a.b.c.webp"));
+        assertFalse(filter.accept("photo.jpg.txt"));
+        assertFalse(filter.accept("photo.jpg."));
+    }
+
+    @Test
+    public void needsNameBeforeExtension() {
+        assertFalse(filter.accept(".jpg"));
+        assertTrue(filter.accept("..jpg"));
+        assertFalse(filter.accept("jpg"));
+        assertFalse(filter.accept(""));
+    }
+
+    @Test
+    public void matchesOldRegexOnEdgeCases() {
+        Pattern regex = createOldRegex(EXTENSIONS);
+        for (String name : EDGE_CASE_NAMES) {
+            assertEquals(name, regex.matcher(name.toLowerCase()).matches(), filter.accept(name));
+        }
+    }
+
+    /** The filter of FileUtils before MediaFileFilter, matched against the lower case name. */
+    static Pattern createOldRegex(List<String> extensions) {
+        return Pattern.compile(extensions.stream().map(e -> "..*?\\." + e).collect(Collectors.joining("|")));
+    }
+}